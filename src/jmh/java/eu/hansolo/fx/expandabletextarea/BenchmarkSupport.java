@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.application.Platform;
+import javafx.scene.control.TextArea;
+import javafx.scene.layout.Region;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Helpers shared by the benchmarks. The benchmarks work on controls that
+ * are not part of a showing window, so they can run on the JMH thread.
+ * The forked JVMs start the toolkit headless via Monocle.
+ */
+final class BenchmarkSupport {
+    static final         String        EXPANDABLE_TEXT_AREA   = "ExpandableTextArea";
+    static final         String        EXPANDABLE_TEXT_AREA_2 = "ExpandableTextArea2";
+    static final         double        WIDTH                  = 400;
+    private static final AtomicBoolean STARTED                = new AtomicBoolean(false);
+    private static final String[]      WORDS                  = { "The", "process", "of", "learning", "the", "Java", "language", "can", "be", "a", "tough", "task", "for", "you" };
+
+
+    private BenchmarkSupport() {}
+
+
+    static void startPlatform() {
+        if (!STARTED.compareAndSet(false, true)) { return; }
+        CountDownLatch latch = new CountDownLatch(1);
+        Platform.startup(latch::countDown);
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns a text of the given size in characters with a line break
+     * after every 40 words.
+     */
+    static String createText(final int size) {
+        StringBuilder text = new StringBuilder(size + 16);
+        int           word = 0;
+        while (text.length() < size) {
+            text.append(WORDS[word % WORDS.length]);
+            word++;
+            text.append(word % 40 == 0 ? '\n' : ' ');
+        }
+        text.setLength(size);
+        return text.toString();
+    }
+
+    static Region createControl(final String type, final String text, final int maxNoOfCharacters) {
+        return createControl(type, text, true, false, maxNoOfCharacters);
+    }
+    static Region createControl(final String type, final String text, final boolean expandable, final boolean fixedHeight, final int maxNoOfCharacters) {
+        Region control;
+        if (EXPANDABLE_TEXT_AREA_2.equals(type)) {
+            control = new ExpandableTextArea2(text, expandable, fixedHeight, 2, maxNoOfCharacters);
+        } else {
+            control = new ExpandableTextArea(text, expandable, fixedHeight, 2, maxNoOfCharacters, -1);
+        }
+        control.setPrefWidth(WIDTH);
+        control.resize(WIDTH, 400);
+        layout(control);
+        return control;
+    }
+
+    static TextArea getTextArea(final Region control) {
+        return control instanceof ExpandableTextArea2 ? ((ExpandableTextArea2) control).getTextArea() : ((ExpandableTextArea) control).getTextArea();
+    }
+
+    static int getNoOfLines(final Region control) {
+        return control instanceof ExpandableTextArea2 ? ((ExpandableTextArea2) control).getNoOfLines() : ((ExpandableTextArea) control).getNoOfLines();
+    }
+
+    /**
+     * Runs the layout pass that executes the pending height update.
+     */
+    static void layout(final Region control) {
+        control.requestLayout();
+        control.layout();
+    }
+}
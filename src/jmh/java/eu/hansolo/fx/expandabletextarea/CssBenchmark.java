@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.scene.Scene;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Cost of creating and styling a form of controls. With
+ * perInstanceStylesheet every control adds the stylesheet to its own
+ * stylesheet list like the controls did before they switched to a
+ * user agent stylesheet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw", "-Djava.awt.headless=true" })
+public class CssBenchmark {
+    private static final String  STYLESHEET = ExpandableTextArea.class.getResource("expandable-text-area.css").toExternalForm();
+    @Param({ "10", "100", "500" })
+    public               int     noOfControls;
+    @Param({ BenchmarkSupport.EXPANDABLE_TEXT_AREA, BenchmarkSupport.EXPANDABLE_TEXT_AREA_2 })
+    public               String  type;
+    @Param({ "false", "true" })
+    public               boolean perInstanceStylesheet;
+
+
+    @Setup(Level.Trial) public void setup() {
+        BenchmarkSupport.startPlatform();
+    }
+
+    @Benchmark public VBox createAndStyle() {
+        VBox  root  = new VBox();
+        Scene scene = new Scene(root);
+        for (int i = 0 ; i < noOfControls ; i++) {
+            Region control = BenchmarkSupport.EXPANDABLE_TEXT_AREA_2.equals(type) ? new ExpandableTextArea2("Text " + i) : new ExpandableTextArea("Text " + i);
+            if (perInstanceStylesheet) { control.getStylesheets().add(STYLESHEET); }
+            root.getChildren().add(control);
+        }
+        root.applyCss();
+        return root;
+    }
+}
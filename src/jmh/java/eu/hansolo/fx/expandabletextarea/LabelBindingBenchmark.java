@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.scene.control.Label;
+import javafx.scene.control.TextArea;
+import javafx.scene.layout.Region;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Cost of mirroring the text into the label after a keystroke. The label is
+ * only shown and updated while the control is collapsed to a fixed height
+ * and not expandable, the update runs in the next layout pass.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw", "-Djava.awt.headless=true" })
+public class LabelBindingBenchmark {
+    @Param({ "100", "10000", "100000", "1000000" })
+    public  int      size;
+    @Param({ BenchmarkSupport.EXPANDABLE_TEXT_AREA, BenchmarkSupport.EXPANDABLE_TEXT_AREA_2 })
+    public  String   type;
+    private Region   control;
+    private TextArea textArea;
+    private Label    label;
+    private int      caret;
+
+
+    @Setup(Level.Trial) public void setup() {
+        BenchmarkSupport.startPlatform();
+        control  = BenchmarkSupport.createControl(type, BenchmarkSupport.createText(size), false, true, Integer.MAX_VALUE);
+        textArea = BenchmarkSupport.getTextArea(control);
+        label    = (Label) control.lookup(".label-pane .label");
+        caret    = size / 2;
+    }
+
+    @Benchmark public String keystrokeAndMirror() {
+        textArea.insertText(caret, "a");
+        textArea.deleteText(caret, caret + 1);
+        BenchmarkSupport.layout(control);
+        return label.getText();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.scene.control.TextArea;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Cost of the max length TextFormatter filter for an edit far below the
+ * limit, and for a paste that exceeds the limit and has to be truncated.
+ * The height update is not part of this benchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw", "-Djava.awt.headless=true" })
+public class TextFormatterBenchmark {
+    private static final String   PASTE = BenchmarkSupport.createText(64);
+    @Param({ "100", "10000", "100000", "1000000" })
+    public               int      size;
+    @Param({ BenchmarkSupport.EXPANDABLE_TEXT_AREA, BenchmarkSupport.EXPANDABLE_TEXT_AREA_2 })
+    public               String   type;
+    private              TextArea belowLimit;
+    private              TextArea atLimit;
+    private              int      caret;
+
+
+    @Setup(Level.Trial) public void setup() {
+        BenchmarkSupport.startPlatform();
+        String text = BenchmarkSupport.createText(size);
+        belowLimit  = BenchmarkSupport.getTextArea(BenchmarkSupport.createControl(type, text, size * 2));
+        atLimit     = BenchmarkSupport.getTextArea(BenchmarkSupport.createControl(type, text, size + 2));
+        caret       = size / 2;
+    }
+
+    @Benchmark public int keystrokeBelowLimit() {
+        belowLimit.insertText(caret, "a");
+        belowLimit.deleteText(caret, caret + 1);
+        return belowLimit.getLength();
+    }
+
+    @Benchmark public int pasteOverLimit() {
+        atLimit.insertText(caret, PASTE);
+        atLimit.deleteText(caret, caret + 1);
+        return atLimit.getLength();
+    }
+}
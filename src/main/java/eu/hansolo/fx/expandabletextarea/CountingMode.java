@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import java.text.BreakIterator;
+import java.util.function.BiFunction;
+
+
+/**
+ * Defines how the characters of an ExpandableTextArea are counted for
+ * maxNoOfCharacters and characterThreshold.
+ * Grapheme clusters are the user perceived characters as found by
+ * BreakIterator.getCharacterInstance(), UTF-8 bytes are counted like
+ * String.getBytes(StandardCharsets.UTF_8) would encode the text.
+ */
+public enum CountingMode {
+    UTF_16(0) {
+        @Override public int count(final CharSequence text, final int start, final int end) { return end - start; }
+
+        @Override int trim(final CharSequence text, final int excess) {
+            int end = Math.max(0, text.length() - excess);
+            // Don't split a surrogate pair
+            if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) { end--; }
+            return end;
+        }
+    },
+    CODE_POINTS(1) {
+        @Override public int count(final CharSequence text, final int start, final int end) { return Character.codePointCount(text, start, end); }
+
+        @Override int trim(final CharSequence text, final int excess) {
+            int end = text.length();
+            for (int i = 0 ; i < excess && end > 0 ; i++) { end -= Character.charCount(Character.codePointBefore(text, end)); }
+            return end;
+        }
+    },
+    GRAPHEME_CLUSTERS(16) {
+        @Override public int count(final CharSequence text, final int start, final int end) {
+            if (end <= start) { return 0; }
+            BreakIterator iterator = BreakIterator.getCharacterInstance();
+            iterator.setText(text.subSequence(start, end).toString());
+            int count = 0;
+            while (BreakIterator.DONE != iterator.next()) { count++; }
+            return count;
+        }
+
+        @Override int trim(final CharSequence text, final int excess) {
+            BreakIterator iterator = BreakIterator.getCharacterInstance();
+            iterator.setText(text.toString());
+            int end = text.length();
+            for (int i = 0 ; i < excess && end > 0 ; i++) { end = iterator.preceding(end); }
+            return Math.max(0, end);
+        }
+
+        /**
+         * A cluster can be longer than any fixed context (e.g. a base with
+         * many combining marks or an emoji ZWJ sequence), so the context is
+         * doubled until the window starts and ends at a cluster boundary that
+         * no char before or after it can move.
+         */
+        @Override int[] getWindow(final int start, final int end, final int length, final BiFunction<Integer, Integer, String> text) {
+            for (int context = this.context ; ; context *= 2) {
+                int    from   = Math.max(0, start - context);
+                int    to     = Math.min(length, end + context);
+                String window = text.apply(from, to);
+                int    first  = 0 == from ? 0 : -1;
+                int    last   = to == length ? window.length() : -1;
+                for (int i = start - from - 1 ; i > 0 ; i--) {
+                    if (isFixedBoundary(window, i)) { first = i; break; }
+                }
+                for (int i = end - from + 1 ; i < window.length() ; i++) {
+                    if (isFixedBoundary(window, i)) { last = i; break; }
+                }
+                if (first >= 0 && last >= 0) { return new int[] { from + first, from + last }; }
+            }
+        }
+    },
+    UTF_8_BYTES(1) {
+        @Override public int count(final CharSequence text, final int start, final int end) {
+            int count = 0;
+            for (int i = start ; i < end ; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    count++;
+                } else if (c < 0x800) {
+                    count += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    count += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    // A lone surrogate is encoded as '?'
+                    count++;
+                } else {
+                    count += 3;
+                }
+            }
+            return count;
+        }
+
+        @Override int trim(final CharSequence text, final int excess) {
+            int end     = text.length();
+            int removed = 0;
+            while (removed < excess && end > 0) {
+                int codePoint = Character.codePointBefore(text, end);
+                int charCount = Character.charCount(codePoint);
+                removed += count(text, end - charCount, end);
+                end     -= charCount;
+            }
+            return end;
+        }
+    };
+
+    /**
+     * Number of chars around an edit that can change how the edit is counted,
+     * e.g. a surrogate pair that is joined by the edit. Grapheme clusters
+     * start with this context and widen it to the surrounding clusters.
+     */
+    final int context;
+
+
+    CountingMode(final int context) { this.context = context; }
+
+
+    public int count(final CharSequence text) { return null == text ? 0 : count(text, 0, text.length()); }
+
+    public abstract int count(CharSequence text, int start, int end);
+
+    /**
+     * Returns the length of the longest prefix of the given text that does
+     * not contain more than maxCount characters in this mode.
+     */
+    public int truncate(final CharSequence text, final int maxCount) {
+        int excess = count(text) - Math.max(0, maxCount);
+        return excess > 0 ? trim(text, excess) : text.length();
+    }
+
+    /**
+     * Returns the end of the text after removing at least excess characters
+     * in this mode from its end, pairs and clusters are never split.
+     */
+    abstract int trim(CharSequence text, int excess);
+
+    /**
+     * Returns the range [from, to) around the range [start, end) of a text
+     * of the given length that has to be counted to get the delta of a
+     * change of [start, end). The text is read through the given function
+     * which returns the chars of [from, to), so only a window of the text
+     * has to be copied.
+     */
+    int[] getWindow(final int start, final int end, final int length, final BiFunction<Integer, Integer, String> text) {
+        return new int[] { Math.max(0, start - context), Math.min(length, end + context) };
+    }
+
+    /**
+     * Returns true if the given index of the text is a cluster boundary
+     * whatever comes before or after the two chars around it. Neither the
+     * char at the index continues a cluster (a mark, a format char like the
+     * ZWJ, a low surrogate, a skin tone modifier, a regional indicator or a
+     * conjoining jamo) nor does the char before (a ZWJ, a CR or a jamo) join
+     * the next one.
+     */
+    private static boolean isFixedBoundary(final CharSequence text, final int index) {
+        char c    = text.charAt(index);
+        char prev = text.charAt(index - 1);
+        if (Character.isLowSurrogate(c) || ('\r' == prev && '\n' == c) || 0x200D == prev) { return false; }
+        int codePoint = Character.codePointAt(text, index);
+        switch (Character.getType(codePoint)) {
+            case Character.NON_SPACING_MARK      :
+            case Character.ENCLOSING_MARK        :
+            case Character.COMBINING_SPACING_MARK:
+            case Character.FORMAT                : return false;
+            default                              : break;
+        }
+        boolean modifier  = codePoint >= 0x1F3FB && codePoint <= 0x1F3FF;
+        boolean indicator = codePoint >= 0x1F1E6 && codePoint <= 0x1F1FF;
+        return !modifier && !indicator && !isJamo(codePoint) && !isJamo(prev);
+    }
+
+    private static boolean isJamo(final int codePoint) {
+        return (codePoint >= 0x1100 && codePoint <= 0x11FF) || (codePoint >= 0xA960 && codePoint <= 0xA97F) || (codePoint >= 0xD7B0 && codePoint <= 0xD7FF);
+    }
+
+    /**
+     * Returns how the count of the given window changes if the range
+     * [start, end) of the window is replaced by the given text.
+     */
+    int delta(final String window, final int start, final int end, final CharSequence replacement) {
+        if (0 == context) { return count(replacement) - (end - start); }
+        StringBuilder newWindow = new StringBuilder(window.length() - (end - start) + replacement.length());
+        newWindow.append(window, 0, start).append(replacement).append(window, end, window.length());
+        return count(newWindow) - count(window);
+    }
+}
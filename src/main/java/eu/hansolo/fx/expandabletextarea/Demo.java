@@ -73,7 +73,7 @@ public class Demo extends Application {
         stage.setScene(scene);
         stage.show();
 
-        expandableTextArea.setText("The process of learning the Java language can be a tough task for you, and they watch the videos for hours and hours to learn java programming before they proceed to the actual writing. Therefore, it is important to enjoy the process of learning, and you should have the patience to learn java programming. \n" +
+        expandableTextArea.setTextAsync("The process of learning the Java language can be a tough task for you, and they watch the videos for hours and hours to learn java programming before they proceed to the actual writing. Therefore, it is important to enjoy the process of learning, and you should have the patience to learn java programming. \n" +
                                    "You have to keep in mind that you can not understand everything for the first time. So, you have to figure out the possible and best ways to learn a programming language. Always try to neglect the negativity during your learning process so that you can easily concentrate on the learning methods.");
     }
 
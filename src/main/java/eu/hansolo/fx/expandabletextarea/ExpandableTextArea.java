@@ -18,37 +18,68 @@ package eu.hansolo.fx.expandabletextarea;
 
 import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
+import javafx.beans.InvalidationListener;
 import javafx.beans.binding.BooleanBinding;
-import javafx.beans.binding.StringBinding;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.BooleanPropertyBase;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.IntegerPropertyBase;
 import javafx.beans.property.ReadOnlyIntegerProperty;
 import javafx.beans.property.StringProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.geometry.Bounds;
 import javafx.geometry.Insets;
+import javafx.geometry.Point2D;
 import javafx.geometry.Pos;
-import javafx.geometry.Rectangle2D;
 import javafx.scene.Node;
+import javafx.scene.Scene;
 import javafx.scene.control.Label;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextFormatter;
 import javafx.scene.control.skin.TextAreaSkin;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Font;
+import javafx.stage.Window;
+import javafx.util.Duration;
+import javafx.util.StringConverter;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 
 public class ExpandableTextArea extends VBox {
-    private static final Pattern         LINEBREAK_PATTERN = Pattern.compile("\\R");
-    private static final Matcher         LINEBREAK_MATCHER = LINEBREAK_PATTERN.matcher("");
-    private static final Character       ENTER             = (char) 10;
+    private static final String          STYLESHEET        = ExpandableTextArea.class.getResource("expandable-text-area.css").toExternalForm();
+    private static final char            ENTER             = (char) 10;
+    private static final double          CONTENT_PADDING   = 0.583333;
+    private static final double          SCROLL_PADDING    = 1;
+    private static final int             MAX_WINDOW_LINES  = 1000;
+    /** Coordinates are rendered as floats, above this height a pixel can not be addressed exactly any more */
+    private static final double          MAX_FILE_HEIGHT   = 1 << 20;
+    static final         ExecutorService TEXT_EXECUTOR     = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), runnable -> {
+        Thread thread = new Thread(runnable, "ExpandableTextArea-Text");
+        thread.setDaemon(true);
+        return thread;
+    });
     private              String          limitationText    = "characters left";
     private              int             maxNoOfCharacters;
+    private              CountingMode    countingMode;
+    private              int             noOfCharacters;
+    private              int             pendingNoOfCharacters;
+    private              int             pendingLength;
     private              int             characterThreshold;
     private              double          lineHeight;
     private              Label           label;
@@ -57,11 +88,51 @@ public class ExpandableTextArea extends VBox {
     private              IntegerProperty compactNoOfLines;
     private              IntegerProperty expandedNoOfLines;
     private              StackPane       labelPane;
+    private              StackPane       pane;
     private              TextArea        textArea;
-    private              TextAreaSkin    textAreaSkin;
+    private              ScrollPane      scrollPane;
+    private              LineIndex       lineIndex;
+    private              HeightCache     heightCache;
+    private              VisibilityTracker visibilityTracker;
+    private              PulseScheduler  heightScheduler;
+    private              PulseScheduler  labelScheduler;
+    private              boolean         labelDirty;
     private              Label           limitationLabel;
+    private              PulseScheduler  limitationScheduler;
+    private              boolean         limitationVisible;
+    private              int             noOfCharactersLeft;
+    private              StringConverter<Integer> limitationConverter;
     private              int             initialNoOfLines;
     private              BooleanBinding  showing;
+    private              InvalidationListener showingListener;
+    private              ChangeListener<Window> windowListener;
+    private              ChangeListener<Scene> sceneListener;
+    private              boolean         lazy;
+    private              String          lazyText;
+    private              boolean         lazyEditable;
+    private              ExpandableTextAreaMetrics metrics;
+    private              long            textChangedNanos;
+    private              long            textRequest;
+    private              MappedTextFile  file;
+    private              boolean         fileEditable;
+    private              int             windowFirst;
+    private              int             windowLast;
+    private              PulseScheduler  windowScheduler;
+    private              InvalidationListener fileWindowListener;
+    private        final StringBuilder   appendBuffer;
+    private              boolean         appendScheduled;
+    private              boolean         appendLineBreak;
+    private              int             appendLineBreaks;
+    private              PulseScheduler  appendScheduler;
+    private              int             maxNoOfLines;
+    private              long            appendedSinceReset;
+    private              boolean         animated;
+    private              Duration        animationDuration;
+    private              HeightAnimator.Animation heightAnimation;
+    private              int             updateDepth;
+    private              boolean         updatePending;
+    private              boolean         updateExpandable;
+    private              double          updateFromHeight;
 
 
     // ******************** Constructors *******************************
@@ -87,36 +158,58 @@ public class ExpandableTextArea extends VBox {
         this(text, expandable, fixedHeight, compactNoOfLines, Integer.MAX_VALUE, -1);
     }
     public ExpandableTextArea(final String text, final boolean expandable, final boolean fixedHeight, final int compactNoOfLines, final int maxNoOfCharacters, final int characterThreshold) {
+        this(text, expandable, fixedHeight, compactNoOfLines, maxNoOfCharacters, characterThreshold, false);
+    }
+    /**
+     * If lazy is true and the control starts with a fixed height that is not
+     * expandable, only the label will be created. The TextArea will be created
+     * on the first click, focus or call of setEditable(true), getTextArea() or
+     * textProperty().
+     */
+    public ExpandableTextArea(final String text, final boolean expandable, final boolean fixedHeight, final int compactNoOfLines, final int maxNoOfCharacters, final int characterThreshold, final boolean lazy) {
         super();
 
         this.maxNoOfCharacters  = clamp(5, Integer.MAX_VALUE, maxNoOfCharacters);
+        this.countingMode       = CountingMode.UTF_16;
+        this.pendingLength      = -1;
         this.characterThreshold = characterThreshold;
-        this.lineHeight         = 17;
+        // Measured like in the expanded path and in HeightPredictor, updated when the font is known
+        this.lineHeight         = TextMeasurer.get(Font.getDefault()).getLineHeight();
         this.fixedHeight        = new BooleanPropertyBase(fixedHeight) {
-            @Override protected void invalidated() { if (get()) { updateHeight(textArea.getText()); } }
+            @Override protected void invalidated() {
+                if (!get()) {
+                    createTextArea();
+                } else if (isUpdating()) {
+                    updatePending = true;
+                } else {
+                    updateHeight();
+                    updateLabel();
+                }
+            }
             @Override public Object getBean() { return ExpandableTextArea.this; }
             @Override public String getName() { return "fixedHeight"; }
         };
         this.expandable         = new BooleanPropertyBase(expandable) {
             @Override protected void invalidated() {
-                if (isFixedHeight()) {
-                    updateHeight(textArea.getText());
-                    if (get()) {
-                        setToExpandedHeight();
-                        enableNode(textArea, true);
-                        enableNode(limitationLabel, textArea.getText().length() >= (maxNoOfCharacters - characterThreshold - 1));
-                    } else {
-                        setToFixedHeight();
-                        enableNode(textArea, false);
-                        enableNode(limitationLabel, false);
-                    }
+                if (!isFixedHeight()) { return; }
+                if (isUpdating()) {
+                    updatePending = true;
+                } else {
+                    applyExpandable(finishHeightAnimation());
                 }
             }
             @Override public Object getBean() { return ExpandableTextArea.this; }
             @Override public String getName() { return "expandable"; }
         };
         this.compactNoOfLines   = new IntegerPropertyBase(compactNoOfLines) {
-            @Override protected void invalidated() { updateHeight(textArea.getText()); }
+            @Override protected void invalidated() {
+                if (isUpdating()) {
+                    updatePending = true;
+                } else {
+                    updateHeight();
+                }
+                invalidateLabel();
+            }
             @Override public Object getBean() { return ExpandableTextArea.this; }
             @Override public String getName() { return "noOfRows"; }
         };
@@ -125,6 +218,35 @@ public class ExpandableTextArea extends VBox {
             @Override public String getName() { return "expandedNoOfLines"; }
         };
         this.initialNoOfLines   = 1;
+        this.lineIndex          = new LineIndex();
+        this.heightCache        = new HeightCache();
+        this.visibilityTracker  = new VisibilityTracker(this);
+        this.heightScheduler    = new PulseScheduler(this, () -> {
+            // While hidden the height is measured once the control becomes visible again
+            if (visibilityTracker.defer(heightScheduler)) { return; }
+            recordTextToPulse();
+            if (isUpdating()) {
+                updatePending = true;
+                return;
+            }
+            updateHeight();
+        });
+        this.labelScheduler     = new PulseScheduler(this, () -> {
+            // The label stays dirty and will be scheduled again by endUpdate()
+            if (isUpdating() || visibilityTracker.defer(labelScheduler)) { return; }
+            updateLabel();
+        });
+        this.limitationScheduler = new PulseScheduler(this, this::updateLimitation);
+        this.noOfCharactersLeft = Integer.MIN_VALUE;
+        this.windowScheduler    = new PulseScheduler(this, this::updateFileWindow);
+        this.fileWindowListener = o -> windowScheduler.schedule();
+        this.appendBuffer       = new StringBuilder();
+        this.appendScheduler    = new PulseScheduler(this, this::flushAppend);
+        this.maxNoOfLines       = 0;
+        this.animated           = false;
+        this.animationDuration  = Duration.millis(200);
+        this.lazy               = lazy && fixedHeight && !expandable;
+        this.lazyEditable       = true;
 
         initGraphics(text);
         registerListeners();
@@ -134,32 +256,11 @@ public class ExpandableTextArea extends VBox {
 
     // ******************** Initialization ************************************
     private void initGraphics(final String text) {
-        getStylesheets().add(ExpandableTextArea.class.getResource("expandable-text-area.css").toExternalForm());
         getStyleClass().add("expandable-text-area");
 
         setAlignment(Pos.TOP_LEFT);
 
-        textArea = new TextArea(text);
-        if (isFixedHeight()) {
-            textArea.setPrefHeight(getCompactNoOfLines() * lineHeight);
-        }
-        textArea.setWrapText(true);
-        textArea.setVisible(!isFixedHeight());
-
-        textArea.setTextFormatter(new TextFormatter<String>(change -> {
-            int noOfCharacters = change.getControlNewText().length();
-            if (noOfCharacters >= maxNoOfCharacters) {
-                String allowedText = change.getControlNewText().substring(0, maxNoOfCharacters - 1);
-                change.setText(allowedText);
-                change.setRange(0, change.getControlText().length());
-            }
-            if (Integer.MAX_VALUE != maxNoOfCharacters) {
-                enableNode(limitationLabel, noOfCharacters >= (maxNoOfCharacters - characterThreshold - 1));
-            }
-            return change;
-        }));
-
-        label = new Label(text);
+        label = new Label();
         label.setAlignment(Pos.TOP_LEFT);
         label.setPrefWidth(Double.MAX_VALUE);
         label.setPrefHeight(getCompactNoOfLines() * lineHeight);
@@ -169,91 +270,156 @@ public class ExpandableTextArea extends VBox {
         labelPane.getStyleClass().add("label-pane");
         labelPane.setPrefWidth(Double.MAX_VALUE);
         labelPane.setAlignment(Pos.TOP_LEFT);
-        labelPane.setPadding(new Insets(5, 6, 6, 9));
 
-        StackPane pane = new StackPane(labelPane, textArea);
+        pane = new StackPane(labelPane);
         pane.getStyleClass().add("text-area-pane");
 
         limitationLabel = new Label();
         limitationLabel.getStyleClass().add("limitation-label");
-        limitationLabel.setFont(Font.font(10));
         limitationLabel.setAlignment(Pos.CENTER_RIGHT);
 
-        enableNode(limitationLabel, maxNoOfCharacters != Integer.MAX_VALUE);
+        enableNode(limitationLabel, false);
+        limitationScheduler.schedule();
 
         setSpacing(5);
         getChildren().addAll(pane, limitationLabel);
+
+        if (lazy) {
+            lazyText   = null == text ? "" : text;
+            labelDirty = true;
+            updateLabel();
+            setFocusTraversable(true);
+        } else {
+            initTextArea(text);
+        }
+    }
+
+    private void initTextArea(final String text) {
+        textArea = new TextArea(text);
+        if (isFixedHeight()) {
+            textArea.setPrefHeight(getCompactNoOfLines() * lineHeight);
+        }
+        textArea.setWrapText(true);
+        textArea.setVisible(!isFixedHeight());
+        lineIndex.rebuild(textArea.getParagraphs(), textArea.getLength());
+        if (CountingMode.UTF_16 != countingMode) { noOfCharacters = countParagraphs(); }
+
+        textArea.setTextFormatter(new TextFormatter<String>(change -> {
+            boolean measure = ExpandableTextAreaMetrics.isEnabled();
+            long    start   = measure ? System.nanoTime() : 0;
+            stripText(change);
+            // The window of a file is not limited to maxNoOfCharacters
+            if (CountingMode.UTF_16 != countingMode) {
+                limitCount(change, null == file ? maxNoOfCharacters : Integer.MAX_VALUE);
+            } else if (null == file) {
+                limitLength(change, textArea.getLength(), maxNoOfCharacters);
+            }
+            lineIndex.edit(change.getRangeStart(), change.getRangeEnd(), change.getText().length());
+            if (measure) { getMetrics().recordFilter(System.nanoTime() - start); }
+            return change;
+        }));
+
+        pane.getChildren().add(textArea);
     }
 
     private void registerListeners() {
-        textArea.widthProperty().addListener(o -> updateHeight(textArea.getText()));
+        if (null != textArea) { registerTextAreaListeners(); }
+        label.heightProperty().addListener(o -> heightScheduler.schedule());
+        label.widthProperty().addListener(o -> invalidateLabel());
+        addEventFilter(MouseEvent.MOUSE_PRESSED, e -> {
+            if (lazy) {
+                edit();
+                positionCaret(e.getX(), e.getY());
+            }
+        });
+        focusedProperty().addListener(o -> {
+            if (lazy && isFocused()) { edit(); }
+        });
+    }
+
+    private void registerTextAreaListeners() {
+        textArea.widthProperty().addListener(o -> {
+            heightScheduler.schedule();
+            invalidateLabel();
+        });
+        textArea.skinProperty().addListener(o -> scrollPane = null);
         textArea.textProperty().addListener(o -> {
-            Platform.runLater(() -> limitationLabel.setText((maxNoOfCharacters - textArea.getText().length() - 1) + " " + limitationText));
-            updateHeight(textArea.getText());
+            syncNoOfCharacters();
+            if (limitationVisible || isLimitationVisible()) { limitationScheduler.schedule(); }
+            lineIndex.sync(textArea.getParagraphs(), textArea.getLength());
+            if (0 == textChangedNanos && ExpandableTextAreaMetrics.isEnabled()) { textChangedNanos = System.nanoTime(); }
+            heightScheduler.schedule();
+            invalidateLabel();
         });
-        label.heightProperty().addListener(o -> updateHeight(textArea.getText()));
     }
 
     private void setupBindings() {
+        if (null != textArea) { setupTextAreaBindings(); }
+
+        // Only the listener on the own scene property is permanent, the listeners on scene and window are moved with the control
+        showingListener = o -> {
+            if (showing.get()) { onShowing(); }
+        };
+        windowListener  = (o, ov, nv) -> initShowing(nv);
+        sceneListener   = (o, ov, nv) -> {
+            if (null != ov) { ov.windowProperty().removeListener(windowListener); }
+            if (null != nv) { nv.windowProperty().addListener(windowListener); }
+            initShowing(null == nv ? null : nv.getWindow());
+        };
+        sceneProperty().addListener(sceneListener);
+        if (null != getScene()) {
+            getScene().windowProperty().addListener(windowListener);
+            initShowing(getScene().getWindow());
+        }
+    }
+
+    private void setupTextAreaBindings() {
         textArea.mouseTransparentProperty().bind(mouseTransparentProperty());
 
         label.prefWidthProperty().bind(textArea.widthProperty());
-        label.textProperty().bind(new StringBinding() {
-            {
-                bind(textArea.textProperty());
-            }
-
-            @Override protected String computeValue() {
-                if (null != textArea.getText() && textArea.getText().length() > 0) {
-                    if (!((Character) textArea.getText().charAt(textArea.getText().length() - 1)).equals(ENTER)) {
-                        return textArea.getText() + ENTER;
-                    }
-                }
-                return textArea.getText();
-            }
-        });
+        labelDirty = true;
+        updateLabel();
 
         // Binding the container width/height to the TextArea width.
         labelPane.maxWidthProperty().bind(textArea.widthProperty());
 
         limitationLabel.prefWidthProperty().bind(textArea.widthProperty());
+    }
 
-        if (null != getScene()) {
-            initShowing();
-        } else {
-            sceneProperty().addListener((o1, ov1, nv1) -> {
-                if (null == nv1) { return; }
-                if (null != getScene().getWindow()) {
-                    initShowing();
-                } else {
-                    sceneProperty().get().windowProperty().addListener((o2, ov2, nv2) -> {
-                        if (null == nv2) { return; }
-                        initShowing();
-                    });
-                }
-            });
+    /**
+     * Observes the showing state of the given window, the binding to the
+     * previous window will be disposed.
+     */
+    private void initShowing(final Window window) {
+        if (null != showing) {
+            showing.removeListener(showingListener);
+            showing.dispose();
+            showing = null;
         }
+        if (null == window) { return; }
+        showing = Bindings.createBooleanBinding(window::isShowing, window.showingProperty());
+        showing.addListener(showingListener);
+        if (showing.get()) { onShowing(); }
     }
 
-    private void initShowing() {
-        showing = Bindings.createBooleanBinding(() -> {
-            if (getScene() != null && getScene().getWindow() != null) {
-                return getScene().getWindow().isShowing();
-            } else {
-                return false;
-            }
-        }, sceneProperty(), getScene().windowProperty(), getScene().getWindow().showingProperty());
-
-        showing.addListener(ob -> {
-            if (showing.get()) {
-                if (isFixedHeight()) {
-                    if (isExpandable()) { setToExpandedHeight(); } else { setToFixedHeight(); }
-                    ScrollPane scrollPane = (ScrollPane) textArea.lookup(".scroll-pane");
-                    scrollPane.hbarPolicyProperty().setValue(ScrollPane.ScrollBarPolicy.NEVER);
-                    scrollPane.vbarPolicyProperty().setValue(ScrollPane.ScrollBarPolicy.NEVER);
-                }
-            }
-        });
+    private void onShowing() {
+        if (isFixedHeight()) {
+            if (isExpandable()) { setToExpandedHeight(); } else { setToFixedHeight(); }
+        }
+        // The stylesheet hides the scroll bars but a vertical one would still take the room of its padding
+        hideScrollBars();
+    }
+
+
+    // ******************** Layout *******************************************
+    @Override public String getUserAgentStylesheet() { return STYLESHEET; }
+
+    @Override protected void layoutChildren() {
+        heightScheduler.flush();
+        labelScheduler.flush();
+        limitationScheduler.flush();
+        windowScheduler.flush();
+        super.layoutChildren();
     }
 
 
@@ -270,15 +436,168 @@ public class ExpandableTextArea extends VBox {
     public void setCompactNoOfLines(final int compactNoOfLines) { this.compactNoOfLines.set(compactNoOfLines); }
     public IntegerProperty compactNoOfLinesProperty() { return compactNoOfLines; }
 
-    public TextArea getTextArea() { return textArea; }
+    public TextArea getTextArea() {
+        createTextArea();
+        return textArea;
+    }
+
+    public String getText() { return null == textArea ? lazyText : textArea.getText(); }
+    public void setText(final String text) {
+        textRequest++;
+        if (null == textArea) {
+            String newText = null == text ? "" : text;
+            lazyText = newText.substring(0, countingMode.truncate(newText, maxNoOfCharacters - 1));
+            invalidateLabel();
+        } else {
+            textArea.setText(text);
+        }
+    }
+    /**
+     * Sets the given text and sets all other settings back to the state of a
+     * new instance, see reset(String, boolean, boolean, int, int, int).
+     */
+    public void reset(final String text) { reset(text, isExpandable(), isFixedHeight(), getCompactNoOfLines(), maxNoOfCharacters, characterThreshold); }
+    /**
+     * Reconfigures the control as if it was created with the given
+     * parameters, e.g. to reuse it from an ExpandableTextAreaPool. Settings
+     * that are not part of the parameters are set back to their defaults,
+     * a shown file is closed, pending appends are dropped and the undo
+     * history is cleared. A control that already created its TextArea stays
+     * non lazy.
+     */
+    public void reset(final String text, final boolean expandable, final boolean fixedHeight, final int compactNoOfLines, final int maxNoOfCharacters, final int characterThreshold) {
+        beginUpdate();
+        try {
+            resetState(text, expandable, fixedHeight, compactNoOfLines, maxNoOfCharacters, characterThreshold);
+        } finally {
+            endUpdate();
+        }
+    }
+    private void resetState(final String text, final boolean expandable, final boolean fixedHeight, final int compactNoOfLines, final int maxNoOfCharacters, final int characterThreshold) {
+        closeFile();
+        synchronized (appendBuffer) {
+            appendBuffer.setLength(0);
+            appendLineBreak  = false;
+            appendLineBreaks = 0;
+        }
+        appendedSinceReset  = 0;
+        maxNoOfLines        = 0;
+        initialNoOfLines    = 1;
+        animated            = false;
+        animationDuration   = Duration.millis(200);
+        limitationText      = "characters left";
+        limitationConverter = null;
+        setCountingMode(CountingMode.UTF_16);
+        setMaxNoOfCharacters(maxNoOfCharacters);
+        setCharacterThreshold(characterThreshold);
+        if (null == textArea) {
+            lazyEditable = true;
+        } else {
+            textArea.textProperty().unbind();
+            textArea.setEditable(true);
+        }
+        setText(text);
+        if (null != textArea) { textArea.setScrollTop(0); }
+        setCompactNoOfLines(compactNoOfLines);
+        setFixedHeight(fixedHeight);
+        setExpandable(expandable);
+    }
+    /**
+     * Sets the text without blocking the FX application thread with the line
+     * counting. The text is prepared and measured on a worker thread, text and
+     * height will then be applied together on the FX application thread.
+     * Must be called on the FX application thread. If setText() or
+     * setTextAsync() is called again before the text is applied, the text of
+     * this call will be dropped.
+     */
+    public CompletableFuture<Void> setTextAsync(final String text) {
+        long         request       = ++textRequest;
+        Font         font          = getTextFont();
+        double       wrappingWidth = getWrappingWidth();
+        int          max           = maxNoOfCharacters;
+        CountingMode mode          = countingMode;
+        return CompletableFuture.supplyAsync(() -> {
+                                    String newText = toTextAreaText(text, max, mode);
+                                    return Map.entry(newText, LineIndex.of(newText, font, wrappingWidth));
+                                }, TEXT_EXECUTOR)
+                                .thenAcceptAsync(prepared -> {
+                                    if (request != textRequest) { return; }
+                                    applyText(prepared.getKey(), prepared.getValue());
+                                }, Platform::runLater);
+    }
+    /**
+     * Shows the given file read only. The file is memory mapped and its lines
+     * are indexed in the background, the expanded height is taken from the
+     * index. Only the lines in the visible part of the control are decoded
+     * and put into the TextArea, so getText() returns these lines only.
+     * Lines are not wrapped while a file is shown.
+     */
+    public MappedTextFile openFile(final Path path) throws IOException { return openFile(path, StandardCharsets.UTF_8); }
+    public MappedTextFile openFile(final Path path, final Charset charset) throws IOException {
+        createTextArea();
+        closeFile();
+        file         = MappedTextFile.open(path, charset, () -> Platform.runLater(() -> {
+            if (null == file) { return; }
+            heightScheduler.schedule();
+            windowScheduler.schedule();
+        }));
+        fileEditable = textArea.isEditable();
+        windowFirst  = -1;
+        windowLast   = -1;
+        textArea.setEditable(false);
+        textArea.setWrapText(false);
+        StackPane.setAlignment(textArea, Pos.TOP_LEFT);
+        localToSceneTransformProperty().addListener(fileWindowListener);
+        heightScheduler.schedule();
+        windowScheduler.schedule();
+        return file;
+    }
+
+    /**
+     * Closes the file that was opened with openFile() and clears the text.
+     */
+    public void closeFile() {
+        if (null == file) { return; }
+        file.close();
+        file = null;
+        localToSceneTransformProperty().removeListener(fileWindowListener);
+        StackPane.setAlignment(textArea, null);
+        textArea.setTranslateY(0);
+        textArea.setWrapText(true);
+        textArea.setEditable(fileEditable);
+        pane.setMinHeight(USE_COMPUTED_SIZE);
+        pane.setPrefHeight(USE_COMPUTED_SIZE);
+        pane.setMaxHeight(USE_COMPUTED_SIZE);
+        textArea.setText("");
+        heightScheduler.schedule();
+    }
+
+    public MappedTextFile getFile() { return file; }
+
+    public StringProperty textProperty() {
+        createTextArea();
+        return textArea.textProperty();
+    }
 
-    public String getText() { return textArea.getText(); }
-    public void setText(final String text) { textArea.setText(text); }
-    public StringProperty textProperty() { return textArea.textProperty(); }
+    public boolean isEditable() { return null == textArea ? lazyEditable : textArea.isEditable(); }
+    public void setEditable(final boolean editable) {
+        if (null == textArea && !editable) {
+            lazyEditable = false;
+        } else {
+            createTextArea();
+            textArea.setEditable(editable);
+        }
+    }
+    public BooleanProperty editableProperty() {
+        createTextArea();
+        return textArea.editableProperty();
+    }
 
-    public boolean isEditable() { return textArea.isEditable(); }
-    public void setEditable(final boolean editable) { textArea.setEditable(editable); }
-    public BooleanProperty editableProperty() { return textArea.editableProperty(); }
+    /**
+     * Returns true if the control was created in lazy mode and still shows
+     * the label instead of a TextArea.
+     */
+    public boolean isLazy() { return lazy; }
 
     public int getExpandedNoOfLines() { return expandedNoOfLines.get(); }
     public ReadOnlyIntegerProperty expandedNoOfLinesProperty() { return expandedNoOfLines; }
@@ -289,74 +608,740 @@ public class ExpandableTextArea extends VBox {
         if (Integer.MAX_VALUE == this.maxNoOfCharacters) {
             characterThreshold = -1;
         }
-        enableNode(limitationLabel, this.maxNoOfCharacters != Integer.MAX_VALUE);
+        invalidateLimitation();
+    }
+
+    public CountingMode getCountingMode() { return countingMode; }
+    /**
+     * Defines how maxNoOfCharacters and characterThreshold count the text,
+     * e.g. UTF_8_BYTES for the limit of a database column. The count is
+     * updated from the range of every edit instead of scanning the text.
+     */
+    public void setCountingMode(final CountingMode countingMode) {
+        this.countingMode = null == countingMode ? CountingMode.UTF_16 : countingMode;
+        if (null != textArea) { noOfCharacters = countParagraphs(); }
+        invalidateLimitation();
+    }
+
+    /**
+     * Returns the number of characters of the text in the current counting mode.
+     */
+    public int getNoOfCharacters() {
+        if (null == textArea) { return countingMode.count(lazyText); }
+        return CountingMode.UTF_16 == countingMode ? textArea.getLength() : noOfCharacters;
     }
 
     public int getCharacterThreshold() { return characterThreshold; }
-    public void setCharacterThreshold(final int characterThreshold) { this.characterThreshold = Integer.MAX_VALUE == maxNoOfCharacters ? -1 : clamp(0, maxNoOfCharacters, characterThreshold); }
+    public void setCharacterThreshold(final int characterThreshold) {
+        this.characterThreshold = Integer.MAX_VALUE == maxNoOfCharacters ? -1 : clamp(0, maxNoOfCharacters, characterThreshold);
+        invalidateLimitation();
+    }
 
     public String getLimitationText() { return limitationText; }
-    public void setLimitationText(final String limitationText) { this.limitationText = null == limitationText ? "" : limitationText; }
+    public void setLimitationText(final String limitationText) {
+        this.limitationText = null == limitationText ? "" : limitationText;
+        invalidateLimitation();
+    }
+
+    public StringConverter<Integer> getLimitationConverter() { return limitationConverter; }
+    /**
+     * Sets a converter that creates the text of the limitation label from
+     * the number of characters left, e.g. for a localized MessageFormat like
+     * "{0,number,integer} characters left".
+     * If null the number is followed by the limitation text.
+     */
+    public void setLimitationConverter(final StringConverter<Integer> limitationConverter) {
+        this.limitationConverter = limitationConverter;
+        invalidateLimitation();
+    }
+
+    public int getMaxNoOfLines() { return maxNoOfLines; }
+    /**
+     * Limits the number of lines, if appended text exceeds the limit the
+     * oldest lines will be removed. 0 means no limit.
+     */
+    public void setMaxNoOfLines(final int maxNoOfLines) {
+        this.maxNoOfLines = Math.max(0, maxNoOfLines);
+        if (this.maxNoOfLines > 0 && null != textArea) { appendScheduler.schedule(); }
+    }
+
+    /**
+     * Appends the given text at the end. Can be called from any thread, all
+     * text appended within one pulse will be added to the TextArea at once.
+     * To keep the memory bounded the undo history of the TextArea is cleared
+     * from time to time while appending and text that is waiting for the
+     * next pulse is limited to maxNoOfLines as well, e.g. while the control
+     * is not part of a showing scene. Text appended while a file is shown
+     * will be ignored.
+     */
+    public void append(final CharSequence text) {
+        if (null == text || text.length() == 0) { return; }
+        synchronized (appendBuffer) {
+            appendBuffer.append(text);
+            appendLineBreaks += countLineBreaks(text);
+            trimAppendBuffer();
+            scheduleAppend();
+        }
+    }
+
+    /**
+     * Appends the given text as a new line, see append().
+     */
+    public void appendLine(final CharSequence line) {
+        synchronized (appendBuffer) {
+            if (appendBuffer.length() == 0) {
+                appendLineBreak = true;
+            } else {
+                appendBuffer.append(ENTER);
+                appendLineBreaks++;
+            }
+            if (null != line) {
+                appendBuffer.append(line);
+                appendLineBreaks += countLineBreaks(line);
+            }
+            trimAppendBuffer();
+            scheduleAppend();
+        }
+    }
+
+    /**
+     * Returns a subscriber that appends every item as a new line, e.g. to
+     * connect the control to a log stream. Errors of the publisher will be
+     * logged.
+     */
+    public Flow.Subscriber<CharSequence> lineSubscriber() {
+        return lineSubscriber(throwable -> System.getLogger(ExpandableTextArea.class.getName()).log(System.Logger.Level.ERROR, "Line publisher failed", throwable));
+    }
+    /**
+     * Returns a subscriber that appends every item as a new line and passes
+     * an error of the publisher to the given handler on the FX application
+     * thread, after the lines received before have been appended.
+     */
+    public Flow.Subscriber<CharSequence> lineSubscriber(final Consumer<Throwable> errorHandler) {
+        return new Flow.Subscriber<>() {
+            @Override public void onSubscribe(final Flow.Subscription subscription) { subscription.request(Long.MAX_VALUE); }
+            @Override public void onNext(final CharSequence line) { appendLine(line); }
+            @Override public void onError(final Throwable throwable) {
+                if (null == errorHandler) { return; }
+                Platform.runLater(() -> errorHandler.accept(throwable));
+            }
+            @Override public void onComplete() { }
+        };
+    }
 
     public void setInitialNoOfLines(final int initialNoOfLines) {
         this.initialNoOfLines = initialNoOfLines;
     }
 
+    /**
+     * Starts a batch of changes, until the matching call of endUpdate() the
+     * properties only record that they changed and the control will neither
+     * measure nor resize itself. Calls can be nested.
+     */
+    public void beginUpdate() {
+        if (0 == updateDepth++) {
+            updateFromHeight = finishHeightAnimation();
+            updateExpandable = isExpandable();
+        }
+    }
+    /**
+     * Ends a batch of changes, the outermost call measures and resizes the
+     * control once for the resulting state.
+     */
+    public void endUpdate() {
+        if (updateDepth <= 0) { throw new IllegalStateException("endUpdate() without beginUpdate()"); }
+        if (--updateDepth > 0) { return; }
+        if (labelDirty) { labelScheduler.schedule(); }
+        if (!updatePending) { return; }
+        updatePending = false;
+        applyState(updateExpandable == isExpandable() ? -1 : updateFromHeight);
+    }
+    public boolean isUpdating() { return updateDepth > 0; }
+    /**
+     * Applies all changes of the given updater at once, e.g.
+     * textArea.update(t -> { t.setFixedHeight(true); t.setCompactNoOfLines(3); t.setText(text); });
+     */
+    public void update(final Consumer<ExpandableTextArea> updater) {
+        beginUpdate();
+        try {
+            updater.accept(this);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    public boolean isAnimated() { return animated; }
+    /**
+     * If true, changing expandable of a control with a fixed height will
+     * animate its visible height with a clip, the parent will only be laid
+     * out at the start and at the end of the animation.
+     */
+    public void setAnimated(final boolean animated) {
+        this.animated = animated;
+        if (!animated) { finishHeightAnimation(); }
+    }
+
+    public Duration getAnimationDuration() { return animationDuration; }
+    public void setAnimationDuration(final Duration animationDuration) {
+        this.animationDuration = null == animationDuration ? Duration.ZERO : animationDuration;
+    }
+
+    /**
+     * Returns the height the control would need for the given text at the
+     * given width without measuring the scene graph. The paddings are taken
+     * from the styled control, so CSS should have been applied before.
+     */
+    public double predictHeight(final CharSequence text, final double width) {
+        TextMeasurer measurer   = TextMeasurer.get(getTextFont());
+        double       lineHeight = measurer.getLineHeight();
+        double       height;
+        if (isLabelVisible()) {
+            // The label shows the compact lines inside the padding of the label pane
+            height = getFixedHeight(getCompactNoOfLines(), lineHeight) + labelPane.snappedTopInset() + labelPane.snappedBottomInset();
+        } else {
+            Insets insets        = null == textArea ? Insets.EMPTY : textArea.getInsets();
+            double wrappingWidth = getWrappingWidth(width - getInsets().getLeft() - getInsets().getRight(), insets, getTextFont());
+            int    noOfLines     = measurer.getNoOfLines(text, wrappingWidth);
+            height = getExpandedHeight(noOfLines, null == text ? 0 : text.length(), initialNoOfLines, lineHeight);
+        }
+        return height + getInsets().getTop() + getInsets().getBottom();
+    }
+
+    /**
+     * Returns the metrics of this instance, they will only be recorded while
+     * ExpandableTextAreaMetrics.isEnabled() returns true.
+     */
+    public ExpandableTextAreaMetrics getMetrics() {
+        if (null == metrics) { metrics = new ExpandableTextAreaMetrics(); }
+        return metrics;
+    }
+
+    /**
+     * Returns the cache for the wrapped lines at the widths this instance was
+     * laid out with, use getHits() and getMisses() to tune its bucket size.
+     */
+    public HeightCache getHeightCache() { return heightCache; }
+    /**
+     * Sets the cache for the wrapped lines, one cache can be shared by
+     * instances that show the same texts. Null sets a new private cache.
+     */
+    public void setHeightCache(final HeightCache heightCache) { this.heightCache = null == heightCache ? new HeightCache() : heightCache; }
+
+    public long getRequestedHeightUpdates() { return heightScheduler.getRequested(); }
+
+    public long getExecutedHeightUpdates() { return heightScheduler.getExecuted(); }
+
+    public long getCoalescedHeightUpdates() { return heightScheduler.getCoalesced(); }
+
     public int getNoOfLines() {
-        if (null == textAreaSkin) { textAreaSkin = (TextAreaSkin) textArea.getSkin(); }
-        int noOfLines = getCompactNoOfLines();
-        if (textAreaSkin != null) {
-            int textLength = textArea.getText().length();
-            if (textLength >= 1) {
-                Rectangle2D startBounds;
-                Rectangle2D endBounds;
-                try {
-                    startBounds = textAreaSkin.getCharacterBounds(1);
-                    endBounds   = textAreaSkin.getCharacterBounds(textLength);
-                } catch (IndexOutOfBoundsException e) {
-                    startBounds = new Rectangle2D(textAreaSkin.getCaretBounds().getMinX(), textAreaSkin.getCaretBounds().getMinX(), textAreaSkin.getCaretBounds().getWidth(), textAreaSkin.getCaretBounds().getHeight());
-                    endBounds   = textAreaSkin.getCharacterBounds(textLength);
-                }
-                if (null != startBounds && null != endBounds) {
-                    double lineHeight = endBounds.getHeight();
-                    noOfLines = (clamp(1, Integer.MAX_VALUE, (int) ((endBounds.getMaxY() - (null == startBounds ? 0 : startBounds.getMinY())) / (lineHeight - 2))));
-                }
+        if (null != file) { return Math.max(1, file.getNoOfLines()); }
+        if (null == textArea) { return TextMeasurer.get(getTextFont()).getNoOfLines(lazyText, getWrappingWidth()); }
+        updateLineIndex();
+        return lineIndex.getNoOfLines(textArea.getParagraphs());
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private void createTextArea() {
+        if (null != textArea) { return; }
+        String text = lazyText;
+        lazy     = false;
+        lazyText = null;
+        setFocusTraversable(false);
+        initTextArea(text);
+        textArea.setEditable(lazyEditable);
+        registerTextAreaListeners();
+        setupTextAreaBindings();
+        if (isFixedHeight() && !isExpandable()) { setToFixedHeight(); }
+        if (null != showing && showing.get()) {
+            textArea.applyCss();
+            hideScrollBars();
+        }
+    }
+
+    /**
+     * Swaps the label for the TextArea after the user clicked on or focused
+     * a lazy control.
+     */
+    private void edit() {
+        createTextArea();
+        enableNode(textArea, true);
+        enableNode(labelPane, false);
+        textArea.requestFocus();
+    }
+
+    private void positionCaret(final double x, final double y) {
+        applyCss();
+        layout();
+        if (textArea.getSkin() instanceof TextAreaSkin) {
+            Point2D point = textArea.sceneToLocal(localToScene(x, y));
+            textArea.positionCaret(((TextAreaSkin) textArea.getSkin()).getIndex(point.getX(), point.getY()).getInsertionIndex());
+        }
+    }
+
+    private void hideScrollBars() {
+        if (null == textArea) { return; }
+        // Resolve the ScrollPane of the skin only once instead of on every show
+        if (null == scrollPane) { scrollPane = (ScrollPane) textArea.lookup(".scroll-pane"); }
+        if (null == scrollPane) { return; }
+        scrollPane.hbarPolicyProperty().setValue(ScrollPane.ScrollBarPolicy.NEVER);
+        scrollPane.vbarPolicyProperty().setValue(ScrollPane.ScrollBarPolicy.NEVER);
+    }
+
+    /**
+     * Builds the text of the compact preview from the first noOfLines lines
+     * the paragraphs need when they are wrapped at the given width, so the
+     * label never lays out more than the visible lines. If the text goes on
+     * after these lines the last line will be cut to make room for the
+     * ellipsis.
+     */
+    static String toPreviewText(final List<CharSequence> paragraphs, final Font font, final double wrappingWidth, final int noOfLines, final String ellipsis) {
+        TextMeasurer  measurer  = TextMeasurer.get(font);
+        StringBuilder builder   = new StringBuilder();
+        int           remaining = Math.max(1, noOfLines);
+        int           lastLine  = 0;
+        boolean       truncated = false;
+        for (int i = 0 ; i < paragraphs.size() ; i++) {
+            if (0 == remaining) {
+                truncated = true;
+                break;
+            }
+            if (i > 0) { builder.append(ENTER); }
+            CharSequence paragraph  = paragraphs.get(i);
+            int[]        lineStarts = measurer.getLineStarts(paragraph, 0, paragraph.length(), wrappingWidth, remaining + 1);
+            int          visible    = Math.min(lineStarts.length, remaining);
+            lastLine   = builder.length() + lineStarts[visible - 1];
+            remaining -= visible;
+            if (visible < lineStarts.length) {
+                builder.append(paragraph, 0, lineStarts[visible]);
+                truncated = true;
+                break;
+            }
+            builder.append(paragraph);
+        }
+        if (truncated) {
+            int    end   = builder.length();
+            while (end > lastLine && Character.isWhitespace(builder.charAt(end - 1))) { end--; }
+            double width = measurer.computeWidth(builder, lastLine, end) + measurer.computeWidth(ellipsis, 0, ellipsis.length());
+            while (end > lastLine && wrappingWidth > 0 && width > wrappingWidth) {
+                int codePoint = Character.codePointBefore(builder, end);
+                width -= measurer.getAdvance(codePoint);
+                end   -= Character.charCount(codePoint);
             }
+            builder.setLength(end);
+            builder.append(ellipsis);
+        } else if (remaining > 0 && builder.length() > 0 && builder.charAt(builder.length() - 1) != ENTER) {
+            builder.append(ENTER);
         }
-        return noOfLines;
+        return builder.toString();
     }
 
+    /**
+     * Returns views on the first maxNoOfParagraphs paragraphs of the given
+     * text without copying them.
+     */
+    static List<CharSequence> getParagraphs(final String text, final int maxNoOfParagraphs) {
+        List<CharSequence> paragraphs = new ArrayList<>();
+        int                start      = 0;
+        while (paragraphs.size() < maxNoOfParagraphs) {
+            int end = text.indexOf(ENTER, start);
+            if (end < 0) {
+                paragraphs.add(CharBuffer.wrap(text, start, text.length()));
+                break;
+            }
+            paragraphs.add(CharBuffer.wrap(text, start, end));
+            start = end + 1;
+        }
+        return paragraphs;
+    }
 
-    // ******************** Private Methods ***********************************
-    private void updateHeight(final String text) {
-        if (null == textAreaSkin) { textAreaSkin = (TextAreaSkin) textArea.getSkin(); }
-        if (isExpandable()) {
-            int textLength = text.length();
-            if (textLength < 1) {
-                expandedNoOfLines.set(1);
-            } else {
-                Rectangle2D startBounds;
-                Rectangle2D endBounds;
-                try {
-                    startBounds = textAreaSkin.getCharacterBounds(1);
-                    endBounds   = textAreaSkin.getCharacterBounds(textLength);
-                } catch (IndexOutOfBoundsException e) {
-                    startBounds = new Rectangle2D(textAreaSkin.getCaretBounds().getMinX(), textAreaSkin.getCaretBounds().getMinX(), textAreaSkin.getCaretBounds().getWidth(), textAreaSkin.getCaretBounds().getHeight());
-                    endBounds   = textAreaSkin.getCharacterBounds(textLength);
-                }
-                if (null == startBounds || null == endBounds) {
-                    expandedNoOfLines.set(1);
-                } else {
-                    lineHeight = endBounds.getHeight();
-                    expandedNoOfLines.set(clamp(1, Integer.MAX_VALUE, (int) ((endBounds.getMaxY() - (null == startBounds ? 0 : startBounds.getMinY())) / (lineHeight - 2))));
-                }
+    /**
+     * Returns the width the given label wraps its text at, before the first
+     * layout pass the given width is the best guess.
+     */
+    static double getLabelWrappingWidth(final Label label, final double wrappingWidth) {
+        if (label.getWidth() <= 0) { return wrappingWidth; }
+        return label.getWidth() - label.snappedLeftInset() - label.snappedRightInset();
+    }
+
+    /**
+     * Limits the length of the resulting text to maxNoOfCharacters - 1 by
+     * trimming only the inserted text of the given change, the range stays
+     * untouched which keeps the caret position and the undo history intact.
+     * The new length is computed from the length of the control, so no copy
+     * of the text is created. Returns the length of the resulting text.
+     */
+    static int limitLength(final TextFormatter.Change change, final int controlLength, final int maxNoOfCharacters) {
+        String text      = change.getText();
+        int    newLength = controlLength - (change.getRangeEnd() - change.getRangeStart()) + text.length();
+        int    excess    = newLength - (maxNoOfCharacters - 1);
+        if (excess <= 0 || text.isEmpty()) { return newLength; }
+        int allowed = Math.max(0, text.length() - excess);
+        // Don't split a surrogate pair
+        if (allowed > 0 && Character.isHighSurrogate(text.charAt(allowed - 1))) { allowed--; }
+        change.setText(text.substring(0, allowed));
+        int end = change.getRangeStart() + allowed;
+        change.selectRange(Math.min(change.getAnchor(), end), Math.min(change.getCaretPosition(), end));
+        return newLength - (text.length() - allowed);
+    }
+
+    /**
+     * Returns the width the text of a TextArea with the given width, insets
+     * and font will be wrapped at. The skin places the text in a ScrollPane
+     * with a padding of one pixel and snaps the padding of the content to
+     * whole pixels.
+     */
+    static double getWrappingWidth(final double width, final Insets insets, final Font font) {
+        return width - insets.getLeft() - insets.getRight() - 2 * SCROLL_PADDING - 2 * Math.round(CONTENT_PADDING * font.getSize());
+    }
+
+    /**
+     * Returns the height of a non expandable control with a fixed height.
+     */
+    static double getFixedHeight(final int compactNoOfLines, final double lineHeight) {
+        return compactNoOfLines * lineHeight;
+    }
+
+    /**
+     * Returns the height of an expanded control, a text with more than 16
+     * characters that fits into one line gets initialNoOfLines lines.
+     */
+    static double getExpandedHeight(final int expandedNoOfLines, final int length, final int initialNoOfLines, final double lineHeight) {
+        if (length > 16 && expandedNoOfLines == 1) { return initialNoOfLines * lineHeight; }
+        return expandedNoOfLines * lineHeight;
+    }
+
+    /**
+     * Removes the characters from the inserted text that the TextArea would
+     * drop, so the lengths seen by the filter are the lengths of the result.
+     * Otherwise a change whose text is dropped completely leaves a wrong
+     * length in the TextArea.
+     */
+    static void stripText(final TextFormatter.Change change) {
+        String text     = change.getText();
+        String stripped = toTextAreaText(text, Integer.MAX_VALUE);
+        if (stripped == text) { return; }
+        change.setText(stripped);
+        int end = change.getRangeStart() + stripped.length();
+        change.selectRange(Math.min(change.getAnchor(), end), Math.min(change.getCaretPosition(), end));
+    }
+
+    /**
+     * Returns the text the way a TextArea would store it, control characters
+     * except '\n' and '\t' are removed and the length is limited to
+     * maxNoOfCharacters - 1.
+     */
+    static String toTextAreaText(final String text, final int maxNoOfCharacters) { return toTextAreaText(text, maxNoOfCharacters, CountingMode.UTF_16); }
+    static String toTextAreaText(final String text, final int maxNoOfCharacters, final CountingMode countingMode) {
+        if (null == text) { return ""; }
+        StringBuilder builder = null;
+        for (int i = 0 ; i < text.length() ; i++) {
+            char    c       = text.charAt(i);
+            boolean invalid = 0x7F == c || (c < 0x20 && ENTER != c && '\t' != c);
+            if (invalid && null == builder) {
+                builder = new StringBuilder(text.length()).append(text, 0, i);
+            } else if (!invalid && null != builder) {
+                builder.append(c);
+            }
+        }
+        String filtered = null == builder ? text : builder.toString();
+        int end = countingMode.truncate(filtered, maxNoOfCharacters - 1);
+        return end == filtered.length() ? filtered : filtered.substring(0, end);
+    }
+
+    /**
+     * Limits the count of the resulting text to maxNoOfCharacters - 1 in the
+     * current counting mode by trimming the inserted text. Only the window
+     * of the counting mode around the range of the change is counted, the
+     * result is applied to noOfCharacters when the text has changed.
+     */
+    private void limitCount(final TextFormatter.Change change, final int maxNoOfCharacters) {
+        if (!change.isContentChange()) { return; }
+        int    start     = change.getRangeStart();
+        int    end       = change.getRangeEnd();
+        int    length    = textArea.getLength();
+        int[]  range     = countingMode.getWindow(start, end, length, textArea::getText);
+        int    from      = range[0];
+        String window    = textArea.getText(from, range[1]);
+        String text      = change.getText();
+        int    count     = noOfCharacters + countingMode.delta(window, start - from, end - from, text);
+        int    allowed   = text.length();
+        while (count > maxNoOfCharacters - 1 && allowed > 0) {
+            allowed = countingMode.trim(text.substring(0, allowed), count - (maxNoOfCharacters - 1));
+            count   = noOfCharacters + countingMode.delta(window, start - from, end - from, text.substring(0, allowed));
+        }
+        if (allowed < text.length()) {
+            change.setText(text.substring(0, allowed));
+            int caretEnd = start + allowed;
+            change.selectRange(Math.min(change.getAnchor(), caretEnd), Math.min(change.getCaretPosition(), caretEnd));
+        }
+        // A change that does not modify the text will not reach the text listener
+        pendingNoOfCharacters = count;
+        pendingLength         = start == end && 0 == allowed ? -1 : length - (end - start) + allowed;
+    }
+
+    /**
+     * Takes over the count of the last change that passed the filter, other
+     * changes (undo/redo, bound text, UTF_16 mode) lead to a recount.
+     */
+    private void syncNoOfCharacters() {
+        if (CountingMode.UTF_16 == countingMode) { return; }
+        noOfCharacters = pendingLength == textArea.getLength() ? pendingNoOfCharacters : countParagraphs();
+        pendingLength  = -1;
+    }
+
+    /**
+     * Counts the text paragraph by paragraph without copying it, clusters
+     * never span a line break.
+     */
+    private int countParagraphs() {
+        List<CharSequence> paragraphs = textArea.getParagraphs();
+        int                count      = paragraphs.size() - 1;
+        for (CharSequence paragraph : paragraphs) { count += countingMode.count(paragraph); }
+        return count;
+    }
+
+    private void scheduleAppend() {
+        if (appendScheduled) { return; }
+        appendScheduled = true;
+        if (Platform.isFxApplicationThread()) {
+            appendScheduler.schedule();
+        } else {
+            Platform.runLater(appendScheduler::schedule);
+        }
+    }
+
+    /**
+     * Drops the oldest lines of the append buffer once it holds twice as
+     * many lines as maxNoOfLines, so the buffer stays bounded without
+     * trimming it on every call. Must be called while holding the lock of
+     * the append buffer.
+     */
+    private void trimAppendBuffer() {
+        int max = maxNoOfLines;
+        if (max <= 0 || appendLineBreaks < 2 * max) { return; }
+        int drop  = appendLineBreaks + 1 - max;
+        int start = 0;
+        for (int i = 0 ; i < drop ; i++) { start = appendBuffer.indexOf("\n", start) + 1; }
+        appendBuffer.delete(0, start);
+        appendLineBreaks -= drop;
+        // The remaining text starts a new line, the end of the old last line was dropped
+        appendLineBreak = true;
+    }
+
+    private static int countLineBreaks(final CharSequence text) {
+        int count = 0;
+        for (int i = 0 ; i < text.length() ; i++) {
+            if (ENTER == text.charAt(i)) { count++; }
+        }
+        return count;
+    }
+
+    private void flushAppend() {
+        String  text;
+        boolean lineBreak;
+        synchronized (appendBuffer) {
+            text            = appendBuffer.toString();
+            lineBreak       = appendLineBreak;
+            appendScheduled  = false;
+            appendLineBreak  = false;
+            appendLineBreaks = 0;
+            appendBuffer.setLength(0);
+        }
+        if (null != file) { return; }
+        createTextArea();
+        if (lineBreak && textArea.getLength() > 0) { text = ENTER + text; }
+
+        // Remove the oldest lines before appending, so that the new text is not cut by maxNoOfCharacters
+        if (maxNoOfLines > 0) {
+            List<CharSequence> paragraphs     = textArea.getParagraphs();
+            int                noOfParagraphs = paragraphs.size();
+            int                noOfNewBreaks  = 0;
+            for (int i = 0 ; i < text.length() ; i++) {
+                if (ENTER == text.charAt(i)) { noOfNewBreaks++; }
+            }
+            int evict = noOfParagraphs + noOfNewBreaks - maxNoOfLines;
+            if (evict >= noOfParagraphs) {
+                // All existing lines and the oldest of the new lines have to go
+                int skip  = evict - noOfParagraphs + 1;
+                int start = 0;
+                while (skip-- > 0) { start = text.indexOf(ENTER, start) + 1; }
+                text = text.substring(start);
+                appendedSinceReset += textArea.getLength();
+                textArea.clear();
+            } else if (evict > 0) {
+                int end = 0;
+                for (int i = 0 ; i < evict ; i++) { end += paragraphs.get(i).length() + 1; }
+                appendedSinceReset += end;
+                textArea.deleteText(0, end);
+            }
+        }
+        if (!text.isEmpty()) {
+            appendedSinceReset += text.length();
+            textArea.appendText(text);
+        }
+
+        // The undo history keeps every appended and removed text, reset it once it is bigger than the text
+        if (appendedSinceReset > textArea.getLength()) {
+            int anchor = textArea.getAnchor();
+            int caret  = textArea.getCaretPosition();
+            textArea.setText(textArea.getText());
+            textArea.selectRange(anchor, caret);
+            appendedSinceReset = 0;
+        }
+    }
+
+    private void applyText(final String text, final LineIndex index) {
+        if (null == textArea) {
+            setText(text);
+            return;
+        }
+        textArea.setText(text);
+        updateLineIndex();
+        lineIndex.load(index);
+        heightScheduler.flush();
+    }
+
+    private boolean isLabelVisible() { return isFixedHeight() && !isExpandable(); }
+
+    private boolean isLimitationVisible() {
+        if (Integer.MAX_VALUE == maxNoOfCharacters || null != file || null == textArea || isLabelVisible()) { return false; }
+        return getNoOfCharacters() >= maxNoOfCharacters - characterThreshold - 1;
+    }
+
+    private void invalidateLimitation() {
+        noOfCharactersLeft = Integer.MIN_VALUE;
+        limitationScheduler.schedule();
+    }
+
+    /**
+     * Shows or hides the limitation label only when the threshold was
+     * crossed and creates its text only if the number of characters left
+     * has changed since the last pulse.
+     */
+    private void updateLimitation() {
+        boolean visible = isLimitationVisible();
+        if (visible != limitationVisible) {
+            limitationVisible = visible;
+            enableNode(limitationLabel, visible);
+        }
+        if (!visible) { return; }
+        int noOfCharactersLeft = maxNoOfCharacters - getNoOfCharacters() - 1;
+        if (noOfCharactersLeft == this.noOfCharactersLeft) { return; }
+        this.noOfCharactersLeft = noOfCharactersLeft;
+        limitationLabel.setText(null == limitationConverter ? noOfCharactersLeft + " " + limitationText : limitationConverter.toString(noOfCharactersLeft));
+    }
+
+    private void invalidateLabel() {
+        labelDirty = true;
+        if (isLabelVisible()) { labelScheduler.schedule(); }
+    }
+
+    /**
+     * Copies the visible lines of the text to the label, as long as the
+     * label is hidden behind the TextArea it will not be touched.
+     */
+    private void updateLabel() {
+        if (!labelDirty || !isLabelVisible() || (null == textArea && null == lazyText)) { return; }
+        labelDirty = false;
+        List<CharSequence> paragraphs = null == textArea ? getParagraphs(lazyText, getCompactNoOfLines() + 1) : textArea.getParagraphs();
+        label.setText(toPreviewText(paragraphs, label.getFont(), getLabelWrappingWidth(label, getWrappingWidth()), getCompactNoOfLines(), label.getEllipsisString()));
+    }
+
+    /**
+     * Finishes a running expand/collapse animation and returns the height
+     * that was visible at that moment.
+     */
+    private double finishHeightAnimation() {
+        if (null == heightAnimation) { return getHeight(); }
+        double height = heightAnimation.getHeight();
+        heightAnimation.finish();
+        return height;
+    }
+
+    private void animateHeight(final double fromHeight, final boolean expanding) {
+        if (!animated || null == textArea || null != file || fromHeight <= 0 || null == showing || !showing.get()) { return; }
+        double toHeight = prefHeight(getWidth());
+        if (toHeight == fromHeight) { return; }
+        if (!expanding) {
+            // The TextArea is not managed anymore and keeps its size, show it until the clip is closed
+            textArea.setVisible(true);
+            labelPane.setVisible(false);
+        }
+        heightAnimation = HeightAnimator.animate(this, fromHeight, toHeight, animationDuration, () -> {
+            heightAnimation = null;
+            if (!expanding) {
+                textArea.setVisible(false);
+                labelPane.setVisible(true);
             }
-            LINEBREAK_MATCHER.reset(text);
-            int lineBreaks = 0;
-            while (LINEBREAK_MATCHER.find()) { lineBreaks++; }
-            if (getExpandedNoOfLines() == lineBreaks) { expandedNoOfLines.set(getExpandedNoOfLines() + 1); }
+        });
+    }
+
+    private Font getTextFont() { return null == textArea ? label.getFont() : textArea.getFont(); }
+
+    /**
+     * Brings the height and the visible nodes in line with expandable, if
+     * fromHeight is positive the change will be animated.
+     */
+    private void applyExpandable(final double fromHeight) {
+        if (isExpandable()) { createTextArea(); }
+        updateHeight();
+        if (isExpandable()) {
             setToExpandedHeight();
+            enableNode(textArea, true);
+            updateLimitation();
+        } else {
+            setToFixedHeight();
+            if (null != textArea) { enableNode(textArea, false); }
+            enableNode(labelPane, true);
+            updateLimitation();
+            updateLabel();
         }
+        animateHeight(fromHeight, isExpandable());
+    }
+
+    /**
+     * Applies the changes of a batch of updates at once.
+     */
+    private void applyState(final double fromHeight) {
+        if (isFixedHeight()) {
+            applyExpandable(fromHeight);
+        } else {
+            updateHeight();
+        }
+    }
+
+    private void updateHeight() {
+        if (isExpandable() && null != file) {
+            lineHeight = TextMeasurer.get(textArea.getFont()).getLineHeight();
+            expandedNoOfLines.set(getNoOfLines());
+            setToExpandedHeight();
+        } else if (isExpandable() && null != textArea) {
+            boolean measure = ExpandableTextAreaMetrics.isEnabled();
+            long    start   = measure ? System.nanoTime() : 0;
+            updateLineIndex();
+            lineHeight = lineIndex.getLineHeight();
+            expandedNoOfLines.set(lineIndex.getNoOfLines(textArea.getParagraphs()));
+            setToExpandedHeight();
+            if (measure) { getMetrics().recordHeightUpdate(System.nanoTime() - start); }
+        }
+    }
+
+    private void recordTextToPulse() {
+        if (0 == textChangedNanos) { return; }
+        if (ExpandableTextAreaMetrics.isEnabled()) { getMetrics().recordTextToPulse(System.nanoTime() - textChangedNanos); }
+        textChangedNanos = 0;
+    }
+
+    private void updateLineIndex() {
+        lineIndex.update(textArea.getFont(), getWrappingWidth(), textArea.getParagraphs(), heightCache);
+    }
+
+    private double getWrappingWidth() {
+        // Before the first layout pass the preferred width is the best guess
+        if (null == textArea) { return getWrappingWidth(getWidth() > 0 ? getWidth() : getPrefWidth(), Insets.EMPTY, getTextFont()); }
+        double width = textArea.getWidth() > 0 ? textArea.getWidth() : getPrefWidth();
+        return getWrappingWidth(width, textArea.getInsets(), textArea.getFont());
     }
 
     private int clamp(final int min, final int max, final int value) {
@@ -366,26 +1351,84 @@ public class ExpandableTextArea extends VBox {
     }
 
     private void setToFixedHeight() {
-        double height = getCompactNoOfLines() * lineHeight;
+        lineHeight = TextMeasurer.get(getTextFont()).getLineHeight();
+        label.setPrefHeight(getFixedHeight(getCompactNoOfLines(), lineHeight));
+        applyHeight(getFixedHeight(getCompactNoOfLines(), lineHeight), getCompactNoOfLines());
+    }
+
+    private void setToExpandedHeight() {
+        applyHeight(getExpandedHeight(getExpandedNoOfLines(), textArea.getLength(), initialNoOfLines, lineHeight), getExpandedNoOfLines());
+    }
+
+    private void applyHeight(final double height, final int noOfRows) {
+        if (null != file) {
+            // The pane has the full height up to MAX_FILE_HEIGHT, the TextArea only covers the visible window
+            double paneHeight = Math.min(height, MAX_FILE_HEIGHT);
+            if (pane.getPrefHeight() == paneHeight) { return; }
+            label.setMaxHeight(paneHeight);
+            pane.setMinHeight(paneHeight);
+            pane.setPrefHeight(paneHeight);
+            pane.setMaxHeight(paneHeight);
+            windowScheduler.schedule();
+            requestLayout();
+            if (ExpandableTextAreaMetrics.isEnabled()) { getMetrics().recordLayoutRequest(); }
+            return;
+        }
+        if (null == textArea) {
+            if (label.getMaxHeight() == height) { return; }
+            label.setMaxHeight(height);
+            requestLayout();
+            if (ExpandableTextAreaMetrics.isEnabled()) { getMetrics().recordLayoutRequest(); }
+            return;
+        }
+        if (label.getMaxHeight() == height && textArea.getMinHeight() == height && textArea.getMaxHeight() == height &&
+            textArea.getPrefHeight() == height && textArea.getPrefRowCount() == noOfRows) { return; }
         label.setMaxHeight(height);
         textArea.setMinHeight(height);
         textArea.setMaxHeight(height);
         textArea.setPrefHeight(height);
-        textArea.setPrefRowCount(getCompactNoOfLines());
+        textArea.setPrefRowCount(noOfRows);
         requestLayout();
+        if (ExpandableTextAreaMetrics.isEnabled()) { getMetrics().recordLayoutRequest(); }
     }
 
-    private void setToExpandedHeight() {
-        double height = getExpandedNoOfLines() * lineHeight;
-        if (getText().length() > 16 && getExpandedNoOfLines() == 1) {
-            height = initialNoOfLines * lineHeight;
+    /**
+     * Puts the lines of the file that are inside the visible part of the
+     * scene into the TextArea and moves it to their position.
+     * Files that are higher than MAX_FILE_HEIGHT are shown in a pane of
+     * MAX_FILE_HEIGHT and the visible part of the pane is mapped linearly
+     * to the lines of the file, so the first and the last line can still
+     * be reached.
+     */
+    private void updateFileWindow() {
+        if (null == file) { return; }
+        // The transform is computed lazily, reading it re-arms the invalidation listener
+        getLocalToSceneTransform();
+        int    noOfRows      = isFixedHeight() && !isExpandable() ? Math.min(getCompactNoOfLines(), getNoOfLines()) : getNoOfLines();
+        double contentHeight = noOfRows * lineHeight;
+        double paneHeight    = Math.min(contentHeight, MAX_FILE_HEIGHT);
+        double top           = 0;
+        double bottom        = paneHeight;
+        Scene  scene         = getScene();
+        if (null != scene && scene.getHeight() > 0) {
+            Bounds bounds = pane.localToScene(pane.getLayoutBounds());
+            top    = Math.max(0, Math.min(bottom, -bounds.getMinY()));
+            bottom = Math.max(top, Math.min(bottom, scene.getHeight() - bounds.getMinY()));
         }
-        label.setMaxHeight(height);
+        double visible     = bottom - top;
+        double scale       = paneHeight > visible ? (contentHeight - visible) / (paneHeight - visible) : 1;
+        double virtualTop  = top * scale;
+        int    first       = Math.min(Math.min(noOfRows, file.getNoOfLines()), (int) (virtualTop / lineHeight));
+        int    last        = Math.min(Math.min(noOfRows, file.getNoOfLines()), Math.min(first + MAX_WINDOW_LINES, (int) Math.ceil((virtualTop + visible) / lineHeight) + 1));
+        textArea.setTranslateY(top - (virtualTop - first * lineHeight));
+        if (first == windowFirst && last == windowLast) { return; }
+        windowFirst = first;
+        windowLast  = last;
+        double height = Math.max(1, last - first) * lineHeight;
+        textArea.setText(file.getLines(first, last));
         textArea.setMinHeight(height);
-        textArea.setMaxHeight(height);
         textArea.setPrefHeight(height);
-        textArea.setPrefRowCount(getExpandedNoOfLines());
-        requestLayout();
+        textArea.setMaxHeight(height);
     }
 
     private void enableNode(final Node node, final boolean enable) {
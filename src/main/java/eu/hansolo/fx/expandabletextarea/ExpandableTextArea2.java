@@ -1,33 +1,35 @@
 package eu.hansolo.fx.expandabletextarea;
 
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
+import javafx.beans.InvalidationListener;
 import javafx.beans.binding.BooleanBinding;
-import javafx.beans.binding.StringBinding;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.BooleanPropertyBase;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.IntegerPropertyBase;
 import javafx.beans.property.ReadOnlyIntegerProperty;
 import javafx.beans.property.StringProperty;
-import javafx.geometry.Insets;
+import javafx.beans.value.ChangeListener;
 import javafx.geometry.Pos;
-import javafx.geometry.Rectangle2D;
 import javafx.scene.Node;
+import javafx.scene.Scene;
 import javafx.scene.control.Label;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextFormatter;
-import javafx.scene.control.skin.TextAreaSkin;
 import javafx.scene.layout.StackPane;
+import javafx.scene.text.Font;
+import javafx.stage.Window;
+import javafx.util.Duration;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 
 public class ExpandableTextArea2 extends StackPane {
-    private static final Pattern         LINEBREAK_PATTERN = Pattern.compile("\\R");
-    private static final Matcher         LINEBREAK_MATCHER = LINEBREAK_PATTERN.matcher("");
-    private static final Character       ENTER             = (char) 10;
+    private static final String          STYLESHEET        = ExpandableTextArea.class.getResource("expandable-text-area.css").toExternalForm();
     private              int             maxNoOfCharacters;
     private              double          lineHeight;
     private              Label           label;
@@ -37,9 +39,26 @@ public class ExpandableTextArea2 extends StackPane {
     private              IntegerProperty expandedNoOfLines;
     private              StackPane       labelPane;
     private              TextArea        textArea;
-    private              TextAreaSkin    textAreaSkin;
+    private              ScrollPane      scrollPane;
+    private              LineIndex       lineIndex;
+    private              HeightCache     heightCache;
+    private              VisibilityTracker visibilityTracker;
+    private              PulseScheduler  heightScheduler;
+    private              PulseScheduler  labelScheduler;
+    private              boolean         labelDirty;
     private              int             initialNoOfLines;
     private              BooleanBinding  showing;
+    private              InvalidationListener showingListener;
+    private              ChangeListener<Window> windowListener;
+    private              ChangeListener<Scene> sceneListener;
+    private              long            textRequest;
+    private              boolean         animated;
+    private              Duration        animationDuration;
+    private              HeightAnimator.Animation heightAnimation;
+    private              int             updateDepth;
+    private              boolean         updatePending;
+    private              boolean         updateExpandable;
+    private              double          updateFromHeight;
 
 
     // ******************** Constructors *******************************
@@ -68,30 +87,41 @@ public class ExpandableTextArea2 extends StackPane {
         super();
 
         this.maxNoOfCharacters = clamp(5, Integer.MAX_VALUE, maxNoOfCharacters);
-        this.lineHeight        = 17;
+        this.lineHeight        = TextMeasurer.get(Font.getDefault()).getLineHeight();
         this.fixedHeight       = new BooleanPropertyBase(fixedHeight) {
-            @Override protected void invalidated() { if (get()) { updateHeight(textArea.getText()); } }
+            @Override protected void invalidated() {
+                if (!get()) { return; }
+                if (isUpdating()) {
+                    updatePending = true;
+                } else {
+                    updateHeight();
+                    updateLabel();
+                }
+            }
             @Override public Object getBean() { return ExpandableTextArea2.this; }
             @Override public String getName() { return "fixedHeight"; }
         };
         this.expandable        = new BooleanPropertyBase(expandable) {
             @Override protected void invalidated() {
-                if (isFixedHeight()) {
-                    updateHeight(textArea.getText());
-                    if (get()) {
-                        setToExpandedHeight();
-                        enableNode(textArea, true);
-                    } else {
-                        setToFixedHeight();
-                        enableNode(textArea, false);
-                    }
+                if (!isFixedHeight()) { return; }
+                if (isUpdating()) {
+                    updatePending = true;
+                } else {
+                    applyExpandable(finishHeightAnimation());
                 }
             }
             @Override public Object getBean() { return ExpandableTextArea2.this; }
             @Override public String getName() { return "expandable"; }
         };
         this.compactNoOfLines  = new IntegerPropertyBase(compactNoOfLines) {
-            @Override protected void invalidated() { updateHeight(textArea.getText()); }
+            @Override protected void invalidated() {
+                if (isUpdating()) {
+                    updatePending = true;
+                } else {
+                    updateHeight();
+                }
+                invalidateLabel();
+            }
             @Override public Object getBean() { return ExpandableTextArea2.this; }
             @Override public String getName() { return "noOfRows"; }
         };
@@ -100,6 +130,25 @@ public class ExpandableTextArea2 extends StackPane {
             @Override public String getName() { return "expandedNoOfLines"; }
         };
         this.initialNoOfLines  = 1;
+        this.lineIndex         = new LineIndex();
+        this.heightCache       = new HeightCache();
+        this.visibilityTracker = new VisibilityTracker(this);
+        this.heightScheduler   = new PulseScheduler(this, () -> {
+            // While hidden the height is measured once the control becomes visible again
+            if (visibilityTracker.defer(heightScheduler)) { return; }
+            if (isUpdating()) {
+                updatePending = true;
+                return;
+            }
+            updateHeight();
+        });
+        this.labelScheduler    = new PulseScheduler(this, () -> {
+            // The label stays dirty and will be scheduled again by endUpdate()
+            if (isUpdating() || visibilityTracker.defer(labelScheduler)) { return; }
+            updateLabel();
+        });
+        this.animated          = false;
+        this.animationDuration = Duration.millis(200);
 
         initGraphics(text);
         registerListeners();
@@ -109,7 +158,6 @@ public class ExpandableTextArea2 extends StackPane {
 
     // ******************** Initialization ************************************
     private void initGraphics(final String text) {
-        getStylesheets().add(ExpandableTextArea.class.getResource("expandable-text-area.css").toExternalForm());
         getStyleClass().add("expandable-text-area");
 
         setAlignment(Pos.TOP_LEFT);
@@ -125,18 +173,16 @@ public class ExpandableTextArea2 extends StackPane {
         }
         textArea.setWrapText(true);
         textArea.setVisible(!isFixedHeight());
+        lineIndex.rebuild(textArea.getParagraphs(), textArea.getLength());
 
         textArea.setTextFormatter(new TextFormatter<String>(change -> {
-            int noOfCharacters = change.getControlNewText().length();
-            if (noOfCharacters >= maxNoOfCharacters) {
-                String allowedText = change.getControlNewText().substring(0, maxNoOfCharacters - 1);
-                change.setText(allowedText);
-                change.setRange(0, change.getControlText().length());
-            }
+            ExpandableTextArea.stripText(change);
+            ExpandableTextArea.limitLength(change, textArea.getLength(), maxNoOfCharacters);
+            lineIndex.edit(change.getRangeStart(), change.getRangeEnd(), change.getText().length());
             return change;
         }));
 
-        label = new Label(text);
+        label = new Label();
         label.setAlignment(Pos.TOP_LEFT);
         label.setPrefWidth(Double.MAX_VALUE);
         label.setMinHeight(lineHeight);
@@ -149,75 +195,84 @@ public class ExpandableTextArea2 extends StackPane {
         labelPane.getStyleClass().add("label-pane");
         labelPane.setPrefWidth(Double.MAX_VALUE);
         labelPane.setAlignment(Pos.TOP_LEFT);
-        labelPane.setPadding(new Insets(5, 6, 6, 9));
 
         getChildren().addAll(labelPane, textArea);
     }
 
     private void registerListeners() {
-        textArea.widthProperty().addListener(o -> updateHeight(textArea.getText()));
-        textArea.textProperty().addListener(o -> updateHeight(textArea.getText()));
-        label.heightProperty().addListener(o -> updateHeight(textArea.getText()));
+        textArea.widthProperty().addListener(o -> {
+            heightScheduler.schedule();
+            invalidateLabel();
+        });
+        textArea.skinProperty().addListener(o -> scrollPane = null);
+        textArea.textProperty().addListener(o -> {
+            lineIndex.sync(textArea.getParagraphs(), textArea.getLength());
+            heightScheduler.schedule();
+            invalidateLabel();
+        });
+        label.heightProperty().addListener(o -> heightScheduler.schedule());
+        label.widthProperty().addListener(o -> invalidateLabel());
     }
 
     private void setupBindings() {
         textArea.mouseTransparentProperty().bind(mouseTransparentProperty());
 
         label.prefWidthProperty().bind(textArea.widthProperty());
-        label.textProperty().bind(new StringBinding() {
-            {
-                bind(textArea.textProperty());
-            }
-
-            @Override protected String computeValue() {
-                if (null != textArea.getText() && textArea.getText().length() > 0) {
-                    if (!((Character) textArea.getText().charAt(textArea.getText().length() - 1)).equals(ENTER)) {
-                        return textArea.getText() + ENTER;
-                    }
-                }
-                return textArea.getText();
-            }
-        });
+        labelDirty = true;
+        updateLabel();
 
         // Binding the container width/height to the TextArea width.
         labelPane.maxWidthProperty().bind(textArea.widthProperty());
 
+        // Only the listener on the own scene property is permanent, the listeners on scene and window are moved with the control
+        showingListener = o -> {
+            if (showing.get()) { onShowing(); }
+        };
+        windowListener  = (o, ov, nv) -> initShowing(nv);
+        sceneListener   = (o, ov, nv) -> {
+            if (null != ov) { ov.windowProperty().removeListener(windowListener); }
+            if (null != nv) { nv.windowProperty().addListener(windowListener); }
+            initShowing(null == nv ? null : nv.getWindow());
+        };
+        sceneProperty().addListener(sceneListener);
         if (null != getScene()) {
-            initShowing();
-        } else {
-            sceneProperty().addListener((o1, ov1, nv1) -> {
-                if (null == nv1) { return; }
-                if (null != getScene().getWindow()) {
-                    initShowing();
-                } else {
-                    sceneProperty().get().windowProperty().addListener((o2, ov2, nv2) -> {
-                        if (null == nv2) { return; }
-                        initShowing();
-                    });
-                }
-            });
+            getScene().windowProperty().addListener(windowListener);
+            initShowing(getScene().getWindow());
         }
     }
 
-    private void initShowing() {
-        showing = Bindings.createBooleanBinding(() -> {
-            if (getScene() != null && getScene().getWindow() != null) {
-                return getScene().getWindow().isShowing();
-            } else {
-                return false;
-            }
-        }, sceneProperty(), getScene().windowProperty(), getScene().getWindow().showingProperty());
-
-        showing.addListener(ob -> {
-            if (showing.get()) {
-                if (isFixedHeight()) {
-                    if (isExpandable()) { setToExpandedHeight(); } else { setToFixedHeight(); }
-                    ScrollPane scrollPane = (ScrollPane) textArea.lookup(".scroll-pane");
-                    scrollPane.hbarPolicyProperty().setValue(ScrollPane.ScrollBarPolicy.NEVER);
-                    scrollPane.vbarPolicyProperty().setValue(ScrollPane.ScrollBarPolicy.NEVER);
-                }
-            }
-        });
+    /**
+     * Observes the showing state of the given window, the binding to the
+     * previous window will be disposed.
+     */
+    private void initShowing(final Window window) {
+        if (null != showing) {
+            showing.removeListener(showingListener);
+            showing.dispose();
+            showing = null;
+        }
+        if (null == window) { return; }
+        showing = Bindings.createBooleanBinding(window::isShowing, window.showingProperty());
+        showing.addListener(showingListener);
+        if (showing.get()) { onShowing(); }
+    }
+
+    private void onShowing() {
+        if (isFixedHeight()) {
+            if (isExpandable()) { setToExpandedHeight(); } else { setToFixedHeight(); }
+        }
+        // The stylesheet hides the scroll bars but a vertical one would still take the room of its padding
+        hideScrollBars();
+    }
+
+
+    // ******************** Layout *******************************************
+    @Override public String getUserAgentStylesheet() { return STYLESHEET; }
+
+    @Override protected void layoutChildren() {
+        heightScheduler.flush();
+        labelScheduler.flush();
+        super.layoutChildren();
     }
 
 
@@ -237,7 +292,35 @@ public class ExpandableTextArea2 extends StackPane {
     public TextArea getTextArea() { return textArea; }
 
     public String getText() { return textArea.getText(); }
-    public void setText(final String text) { textArea.setText(text); }
+    public void setText(final String text) {
+        textRequest++;
+        textArea.setText(text);
+    }
+    /**
+     * Sets the text without blocking the FX application thread with the line
+     * counting. The text is prepared and measured on a worker thread, text and
+     * height will then be applied together on the FX application thread.
+     * Must be called on the FX application thread. If setText() or
+     * setTextAsync() is called again before the text is applied, the text of
+     * this call will be dropped.
+     */
+    public CompletableFuture<Void> setTextAsync(final String text) {
+        long   request       = ++textRequest;
+        Font   font          = textArea.getFont();
+        double wrappingWidth = getWrappingWidth();
+        int    max           = maxNoOfCharacters;
+        return CompletableFuture.supplyAsync(() -> {
+                                    String newText = ExpandableTextArea.toTextAreaText(text, max);
+                                    return Map.entry(newText, LineIndex.of(newText, font, wrappingWidth));
+                                }, ExpandableTextArea.TEXT_EXECUTOR)
+                                .thenAcceptAsync(prepared -> {
+                                    if (request != textRequest) { return; }
+                                    textArea.setText(prepared.getKey());
+                                    updateLineIndex();
+                                    lineIndex.load(prepared.getValue());
+                                    heightScheduler.flush();
+                                }, Platform::runLater);
+    }
     public StringProperty textProperty() { return textArea.textProperty(); }
 
     public boolean isEditable() { return textArea.isEditable(); }
@@ -251,37 +334,174 @@ public class ExpandableTextArea2 extends StackPane {
         this.initialNoOfLines = initialNoOfLines;
     }
 
-    private void updateHeight(final String text) {
-        if (null == textAreaSkin) { textAreaSkin = (TextAreaSkin) textArea.getSkin(); }
+    /**
+     * Starts a batch of changes, until the matching call of endUpdate() the
+     * properties only record that they changed and the control will neither
+     * measure nor resize itself. Calls can be nested.
+     */
+    public void beginUpdate() {
+        if (0 == updateDepth++) {
+            updateFromHeight = finishHeightAnimation();
+            updateExpandable = isExpandable();
+        }
+    }
+    /**
+     * Ends a batch of changes, the outermost call measures and resizes the
+     * control once for the resulting state.
+     */
+    public void endUpdate() {
+        if (updateDepth <= 0) { throw new IllegalStateException("endUpdate() without beginUpdate()"); }
+        if (--updateDepth > 0) { return; }
+        if (labelDirty) { labelScheduler.schedule(); }
+        if (!updatePending) { return; }
+        updatePending = false;
+        applyState(updateExpandable == isExpandable() ? -1 : updateFromHeight);
+    }
+    public boolean isUpdating() { return updateDepth > 0; }
+    /**
+     * Applies all changes of the given updater at once, e.g.
+     * textArea.update(t -> { t.setFixedHeight(true); t.setCompactNoOfLines(3); t.setText(text); });
+     */
+    public void update(final Consumer<ExpandableTextArea2> updater) {
+        beginUpdate();
+        try {
+            updater.accept(this);
+        } finally {
+            endUpdate();
+        }
+    }
+
+    public boolean isAnimated() { return animated; }
+    /**
+     * If true, changing expandable of a control with a fixed height will
+     * animate its visible height with a clip, see ExpandableTextArea.
+     */
+    public void setAnimated(final boolean animated) {
+        this.animated = animated;
+        if (!animated) { finishHeightAnimation(); }
+    }
+
+    public Duration getAnimationDuration() { return animationDuration; }
+    public void setAnimationDuration(final Duration animationDuration) {
+        this.animationDuration = null == animationDuration ? Duration.ZERO : animationDuration;
+    }
+
+    /**
+     * Returns the cache for the wrapped lines at the widths this instance was
+     * laid out with, use getHits() and getMisses() to tune its bucket size.
+     */
+    public HeightCache getHeightCache() { return heightCache; }
+    /**
+     * Sets the cache for the wrapped lines, one cache can be shared by
+     * instances that show the same texts. Null sets a new private cache.
+     */
+    public void setHeightCache(final HeightCache heightCache) { this.heightCache = null == heightCache ? new HeightCache() : heightCache; }
+
+    public long getRequestedHeightUpdates() { return heightScheduler.getRequested(); }
+
+    public long getExecutedHeightUpdates() { return heightScheduler.getExecuted(); }
+
+    public long getCoalescedHeightUpdates() { return heightScheduler.getCoalesced(); }
+
+    public int getNoOfLines() {
+        updateLineIndex();
+        return lineIndex.getNoOfLines(textArea.getParagraphs());
+    }
+
+    /**
+     * Brings the height and the visible nodes in line with expandable, if
+     * fromHeight is positive the change will be animated.
+     */
+    private void applyExpandable(final double fromHeight) {
+        updateHeight();
         if (isExpandable()) {
-            int textLength = text.length();
-            if (textLength < 1) {
-                expandedNoOfLines.set(1);
-            } else {
-                Rectangle2D startBounds;
-                Rectangle2D endBounds;
-                try {
-                    startBounds = textAreaSkin.getCharacterBounds(1);
-                    endBounds   = textAreaSkin.getCharacterBounds(textLength);
-                } catch (IndexOutOfBoundsException e) {
-                    startBounds = new Rectangle2D(textAreaSkin.getCaretBounds().getMinX(), textAreaSkin.getCaretBounds().getMinX(), textAreaSkin.getCaretBounds().getWidth(), textAreaSkin.getCaretBounds().getHeight());
-                    endBounds   = textAreaSkin.getCharacterBounds(textLength);
-                }
-                if (null == startBounds || null == endBounds) {
-                    expandedNoOfLines.set(1);
-                } else {
-                    lineHeight = endBounds.getHeight();
-                    expandedNoOfLines.set(clamp(1, Integer.MAX_VALUE, (int) ((endBounds.getMaxY() - (null == startBounds ? 0 : startBounds.getMinY())) / (lineHeight - 2))));
-                }
-            }
-            LINEBREAK_MATCHER.reset(text);
-            int lineBreaks = 0;
-            while (LINEBREAK_MATCHER.find()) { lineBreaks++; }
-            if (getExpandedNoOfLines() == lineBreaks) { expandedNoOfLines.set(getExpandedNoOfLines() + 1); }
             setToExpandedHeight();
+            enableNode(textArea, true);
+        } else {
+            setToFixedHeight();
+            enableNode(textArea, false);
+            updateLabel();
+        }
+        animateHeight(fromHeight, isExpandable());
+    }
+
+    /**
+     * Applies the changes of a batch of updates at once.
+     */
+    private void applyState(final double fromHeight) {
+        if (isFixedHeight()) {
+            applyExpandable(fromHeight);
+        } else {
+            updateHeight();
         }
     }
 
+    private void updateHeight() {
+        if (isExpandable()) {
+            updateLineIndex();
+            lineHeight = lineIndex.getLineHeight();
+            expandedNoOfLines.set(lineIndex.getNoOfLines(textArea.getParagraphs()));
+            setToExpandedHeight();
+        }
+    }
+
+    private double finishHeightAnimation() {
+        if (null == heightAnimation) { return getHeight(); }
+        double height = heightAnimation.getHeight();
+        heightAnimation.finish();
+        return height;
+    }
+
+    private void animateHeight(final double fromHeight, final boolean expanding) {
+        if (!animated || fromHeight <= 0 || null == showing || !showing.get()) { return; }
+        double toHeight = prefHeight(getWidth());
+        if (toHeight == fromHeight) { return; }
+        if (!expanding) {
+            // The TextArea is not managed anymore and keeps its size, show it until the clip is closed
+            textArea.setVisible(true);
+            labelPane.setVisible(false);
+        }
+        heightAnimation = HeightAnimator.animate(this, fromHeight, toHeight, animationDuration, () -> {
+            heightAnimation = null;
+            if (!expanding) {
+                textArea.setVisible(false);
+                labelPane.setVisible(true);
+            }
+        });
+    }
+
+    private boolean isLabelVisible() { return isFixedHeight() && !isExpandable(); }
+
+    private void invalidateLabel() {
+        labelDirty = true;
+        if (isLabelVisible()) { labelScheduler.schedule(); }
+    }
+
+    private void updateLabel() {
+        if (!labelDirty || !isLabelVisible()) { return; }
+        labelDirty = false;
+        double wrappingWidth = ExpandableTextArea.getLabelWrappingWidth(label, getWrappingWidth());
+        label.setText(ExpandableTextArea.toPreviewText(textArea.getParagraphs(), label.getFont(), wrappingWidth, getCompactNoOfLines(), label.getEllipsisString()));
+    }
+
+    private void updateLineIndex() {
+        lineIndex.update(textArea.getFont(), getWrappingWidth(), textArea.getParagraphs(), heightCache);
+    }
+
+    private double getWrappingWidth() {
+        // Before the first layout pass the preferred width is the best guess
+        double width = textArea.getWidth() > 0 ? textArea.getWidth() : getPrefWidth();
+        return ExpandableTextArea.getWrappingWidth(width, textArea.getInsets(), textArea.getFont());
+    }
+
+    private void hideScrollBars() {
+        // Resolve the ScrollPane of the skin only once instead of on every show
+        if (null == scrollPane) { scrollPane = (ScrollPane) textArea.lookup(".scroll-pane"); }
+        if (null == scrollPane) { return; }
+        scrollPane.hbarPolicyProperty().setValue(ScrollPane.ScrollBarPolicy.NEVER);
+        scrollPane.vbarPolicyProperty().setValue(ScrollPane.ScrollBarPolicy.NEVER);
+    }
+
     private int clamp(final int min, final int max, final int value) {
         if (value < min) { return min; }
         if (value > max) { return max; }
@@ -289,25 +509,22 @@ public class ExpandableTextArea2 extends StackPane {
     }
 
     private void setToFixedHeight() {
-        double compactedHeight = getCompactNoOfLines() * lineHeight;
-        label.setMaxHeight(compactedHeight);
-        textArea.setMinHeight(compactedHeight);
-        textArea.setMaxHeight(compactedHeight);
-        textArea.setPrefHeight(compactedHeight);
-        textArea.setPrefRowCount(getCompactNoOfLines());
-        requestLayout();
+        lineHeight = TextMeasurer.get(textArea.getFont()).getLineHeight();
+        applyHeight(ExpandableTextArea.getFixedHeight(getCompactNoOfLines(), lineHeight), getCompactNoOfLines());
     }
 
     private void setToExpandedHeight() {
-        double expandedHeight = getExpandedNoOfLines() * lineHeight;
-        if (getText().length() > 16 && (getExpandedNoOfLines() == 1 || initialNoOfLines > getExpandedNoOfLines())) {
-            expandedHeight = initialNoOfLines * lineHeight;
-        }
-        label.setMaxHeight(expandedHeight);
-        textArea.setPrefRowCount(getExpandedNoOfLines());
-        textArea.setMinHeight(expandedHeight);
-        textArea.setMaxHeight(expandedHeight);
-        textArea.setPrefHeight(expandedHeight);
+        applyHeight(ExpandableTextArea.getExpandedHeight(getExpandedNoOfLines(), textArea.getLength(), initialNoOfLines, lineHeight), getExpandedNoOfLines());
+    }
+
+    private void applyHeight(final double height, final int noOfRows) {
+        if (label.getMaxHeight() == height && textArea.getMinHeight() == height && textArea.getMaxHeight() == height &&
+            textArea.getPrefHeight() == height && textArea.getPrefRowCount() == noOfRows) { return; }
+        label.setMaxHeight(height);
+        textArea.setPrefRowCount(noOfRows);
+        textArea.setMinHeight(height);
+        textArea.setMaxHeight(height);
+        textArea.setPrefHeight(height);
         requestLayout();
     }
 
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.value.ChangeListener;
+import javafx.scene.Node;
+import javafx.scene.control.ContentDisplay;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+
+
+/**
+ * Recyclable cell that shows its item in one reused ExpandableTextArea.
+ * The preferred height is predicted from the text metrics, so sizing a
+ * cell never triggers a layout of the TextArea. The ExpandableTextArea is
+ * lazy, so its TextArea will only be created when the user clicks on a cell.
+ * While the ExpandableTextArea has the focus the cell follows the height of
+ * the edited text, the edits will be written back to the items of the
+ * ListView when it loses the focus.
+ */
+public class ExpandableTextAreaListCell extends ListCell<String> {
+    private final ExpandableTextArea   expandableTextArea;
+    private final ChangeListener<Node> focusOwnerListener;
+    private final InvalidationListener textListener;
+
+
+    // ******************** Constructors *******************************
+    public ExpandableTextAreaListCell() {
+        expandableTextArea = new ExpandableTextArea("", false, true, 2, Integer.MAX_VALUE, -1, true);
+        textListener       = o -> requestLayout();
+        focusOwnerListener = (o, ov, nv) -> {
+            boolean focusedBefore = contains(ov);
+            boolean focused       = contains(nv);
+            if (!focusedBefore && focused) {
+                // The TextArea exists once it has the focus
+                expandableTextArea.textProperty().addListener(textListener);
+            } else if (focusedBefore && !focused) {
+                expandableTextArea.textProperty().removeListener(textListener);
+                commit();
+            }
+        };
+        getStyleClass().add("expandable-text-area-list-cell");
+        setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
+        // Listening to the focus owner does not create the TextArea of the lazy control
+        sceneProperty().addListener((o, ov, nv) -> {
+            if (null != ov) {
+                ov.focusOwnerProperty().removeListener(focusOwnerListener);
+                if (contains(ov.getFocusOwner())) { expandableTextArea.textProperty().removeListener(textListener); }
+            }
+            if (null != nv) { nv.focusOwnerProperty().addListener(focusOwnerListener); }
+        });
+    }
+
+
+    // ******************** Methods *******************************************
+    @Override protected void updateItem(final String item, final boolean empty) {
+        super.updateItem(item, empty);
+        if (empty || null == item) {
+            setGraphic(null);
+        } else {
+            ListView<String> listView = getListView();
+            if (listView instanceof ExpandableTextAreaListView) {
+                ExpandableTextAreaListView expandableListView = (ExpandableTextAreaListView) listView;
+                expandableTextArea.setCompactNoOfLines(expandableListView.getCompactNoOfLines());
+                expandableTextArea.setExpandable(expandableListView.isExpandable());
+            }
+            expandableTextArea.setText(item);
+            setGraphic(expandableTextArea);
+        }
+    }
+
+    @Override protected double computePrefWidth(final double height) {
+        // Take the width of the viewport instead of the width of the label
+        return snappedLeftInset() + snappedRightInset();
+    }
+
+    @Override protected double computePrefHeight(final double width) {
+        if (isEmpty() || null == getItem()) { return super.computePrefHeight(width); }
+        double cellWidth = width > 0 ? width : (null == getListView() ? getWidth() : getListView().getWidth());
+        // The text of the control also contains the edits that are not committed yet
+        return snappedTopInset() + snappedBottomInset() + expandableTextArea.predictHeight(expandableTextArea.getText(), cellWidth - snappedLeftInset() - snappedRightInset());
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private boolean contains(final Node node) {
+        for (Node parent = node ; null != parent ; parent = parent.getParent()) {
+            if (parent == expandableTextArea) { return true; }
+        }
+        return false;
+    }
+
+    private void commit() {
+        ListView<String> listView = getListView();
+        int              index    = getIndex();
+        if (isEmpty() || null == listView || index < 0 || index >= listView.getItems().size()) { return; }
+        String text = expandableTextArea.getText();
+        if (!text.equals(getItem())) { listView.getItems().set(index, text); }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.BooleanPropertyBase;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.IntegerPropertyBase;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.control.ListView;
+
+
+/**
+ * A ListView that shows every item in an ExpandableTextArea.
+ * Only the cells in the viewport are created and recycled while
+ * scrolling, the height of every row is predicted from the text
+ * metrics without laying out a TextArea.
+ */
+public class ExpandableTextAreaListView extends ListView<String> {
+    private BooleanProperty expandable;
+    private IntegerProperty compactNoOfLines;
+
+
+    // ******************** Constructors *******************************
+    public ExpandableTextAreaListView() {
+        this(FXCollections.observableArrayList());
+    }
+    public ExpandableTextAreaListView(final ObservableList<String> items) {
+        super(items);
+        this.expandable       = new BooleanPropertyBase(false) {
+            @Override protected void invalidated() { refresh(); }
+            @Override public Object getBean() { return ExpandableTextAreaListView.this; }
+            @Override public String getName() { return "expandable"; }
+        };
+        this.compactNoOfLines = new IntegerPropertyBase(2) {
+            @Override protected void invalidated() { refresh(); }
+            @Override public Object getBean() { return ExpandableTextAreaListView.this; }
+            @Override public String getName() { return "compactNoOfLines"; }
+        };
+
+        getStyleClass().add("expandable-text-area-list-view");
+        setCellFactory(listView -> new ExpandableTextAreaListCell());
+    }
+
+
+    // ******************** Methods *******************************************
+    public boolean isExpandable() { return expandable.get(); }
+    public void setExpandable(final boolean expandable) { this.expandable.set(expandable); }
+    public BooleanProperty expandableProperty() { return expandable; }
+
+    public int getCompactNoOfLines() { return compactNoOfLines.get(); }
+    public void setCompactNoOfLines(final int compactNoOfLines) { this.compactNoOfLines.set(compactNoOfLines); }
+    public IntegerProperty compactNoOfLinesProperty() { return compactNoOfLines; }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Read only latency metrics of an ExpandableTextArea.
+ * Recording is disabled by default and can be enabled with
+ * setEnabled(true) or the system property
+ * -Deu.hansolo.fx.expandabletextarea.metrics=true.
+ * While disabled the only cost is the check of a static flag.
+ * Every instance has its own metrics, getAggregate() returns the sum of
+ * all instances. The values can be read from any thread.
+ */
+public final class ExpandableTextAreaMetrics {
+    private static final ExpandableTextAreaMetrics AGGREGATE = new ExpandableTextAreaMetrics(null);
+    private static volatile boolean                enabled   = Boolean.getBoolean("eu.hansolo.fx.expandabletextarea.metrics");
+    private        final ExpandableTextAreaMetrics parent;
+    private        final LongAdder                 noOfHeightUpdates;
+    private        final LongAdder                 heightUpdateNanos;
+    private        final LongAdder                 noOfFilterCalls;
+    private        final LongAdder                 filterNanos;
+    private        final LongAdder                 noOfLayoutRequests;
+    private        final LongAdder                 noOfTextToPulseDelays;
+    private        final LongAdder                 textToPulseNanos;
+    private        final LongAccumulator           maxTextToPulseNanos;
+
+
+    // ******************** Constructors **************************************
+    ExpandableTextAreaMetrics() {
+        this(AGGREGATE);
+    }
+    private ExpandableTextAreaMetrics(final ExpandableTextAreaMetrics parent) {
+        this.parent                = parent;
+        this.noOfHeightUpdates     = new LongAdder();
+        this.heightUpdateNanos     = new LongAdder();
+        this.noOfFilterCalls       = new LongAdder();
+        this.filterNanos           = new LongAdder();
+        this.noOfLayoutRequests    = new LongAdder();
+        this.noOfTextToPulseDelays = new LongAdder();
+        this.textToPulseNanos      = new LongAdder();
+        this.maxTextToPulseNanos   = new LongAccumulator(Math::max, 0);
+    }
+
+
+    // ******************** Methods *******************************************
+    public static boolean isEnabled() { return enabled; }
+    public static void setEnabled(final boolean enabled) { ExpandableTextAreaMetrics.enabled = enabled; }
+
+    public static ExpandableTextAreaMetrics getAggregate() { return AGGREGATE; }
+
+    public long getNoOfHeightUpdates() { return noOfHeightUpdates.sum(); }
+    public long getHeightUpdateNanos() { return heightUpdateNanos.sum(); }
+
+    public long getNoOfFilterCalls() { return noOfFilterCalls.sum(); }
+    public long getFilterNanos() { return filterNanos.sum(); }
+
+    public long getNoOfLayoutRequests() { return noOfLayoutRequests.sum(); }
+
+    public long getNoOfTextToPulseDelays() { return noOfTextToPulseDelays.sum(); }
+    public long getTextToPulseNanos() { return textToPulseNanos.sum(); }
+    public long getMaxTextToPulseNanos() { return maxTextToPulseNanos.get(); }
+
+    public void reset() {
+        noOfHeightUpdates.reset();
+        heightUpdateNanos.reset();
+        noOfFilterCalls.reset();
+        filterNanos.reset();
+        noOfLayoutRequests.reset();
+        noOfTextToPulseDelays.reset();
+        textToPulseNanos.reset();
+        maxTextToPulseNanos.reset();
+    }
+
+    @Override public String toString() {
+        return new StringBuilder().append("{")
+                                  .append("\"height_updates\":").append(getNoOfHeightUpdates()).append(",")
+                                  .append("\"height_update_nanos\":").append(getHeightUpdateNanos()).append(",")
+                                  .append("\"filter_calls\":").append(getNoOfFilterCalls()).append(",")
+                                  .append("\"filter_nanos\":").append(getFilterNanos()).append(",")
+                                  .append("\"layout_requests\":").append(getNoOfLayoutRequests()).append(",")
+                                  .append("\"text_to_pulse_delays\":").append(getNoOfTextToPulseDelays()).append(",")
+                                  .append("\"text_to_pulse_nanos\":").append(getTextToPulseNanos()).append(",")
+                                  .append("\"max_text_to_pulse_nanos\":").append(getMaxTextToPulseNanos())
+                                  .append("}")
+                                  .toString();
+    }
+
+
+    // ******************** Recording *****************************************
+    void recordHeightUpdate(final long nanos) {
+        noOfHeightUpdates.increment();
+        heightUpdateNanos.add(nanos);
+        if (null != parent) { parent.recordHeightUpdate(nanos); }
+    }
+
+    void recordFilter(final long nanos) {
+        noOfFilterCalls.increment();
+        filterNanos.add(nanos);
+        if (null != parent) { parent.recordFilter(nanos); }
+    }
+
+    void recordLayoutRequest() {
+        noOfLayoutRequests.increment();
+        if (null != parent) { parent.recordLayoutRequest(); }
+    }
+
+    void recordTextToPulse(final long nanos) {
+        noOfTextToPulseDelays.increment();
+        textToPulseNanos.add(nanos);
+        maxTextToPulseNanos.accumulate(nanos);
+        if (null != parent) { parent.recordTextToPulse(nanos); }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+
+/**
+ * Pool of ExpandableTextArea instances for views that are created and
+ * thrown away often, e.g. dialogs. Released instances are reconfigured with
+ * reset() when they are acquired again, instances that exceed the max size
+ * of the pool are left to the garbage collector.
+ * Instances must be removed from the scene graph before they are released,
+ * the pool must be used on the FX application thread.
+ */
+public final class ExpandableTextAreaPool {
+    private final Deque<ExpandableTextArea> pool;
+    private final int                       maxSize;
+    private       long                      created;
+    private       long                      reused;
+    private       long                      released;
+    private       long                      discarded;
+
+
+    // ******************** Constructors **************************************
+    public ExpandableTextAreaPool(final int maxSize) {
+        if (maxSize < 0) { throw new IllegalArgumentException("maxSize must not be negative"); }
+        this.pool    = new ArrayDeque<>();
+        this.maxSize = maxSize;
+    }
+
+
+    // ******************** Methods *******************************************
+    public ExpandableTextArea acquire(final String text, final int compactNoOfLines) {
+        return acquire(text, true, false, compactNoOfLines, Integer.MAX_VALUE, -1);
+    }
+    /**
+     * Returns a pooled instance that was reset with the given parameters or a
+     * new instance if the pool is empty, the parameters are the same as for
+     * the constructors of ExpandableTextArea.
+     */
+    public ExpandableTextArea acquire(final String text, final boolean expandable, final boolean fixedHeight, final int compactNoOfLines, final int maxNoOfCharacters, final int characterThreshold) {
+        ExpandableTextArea textArea = pool.pollFirst();
+        if (null == textArea) {
+            created++;
+            return new ExpandableTextArea(text, expandable, fixedHeight, compactNoOfLines, maxNoOfCharacters, characterThreshold);
+        }
+        reused++;
+        textArea.reset(text, expandable, fixedHeight, compactNoOfLines, maxNoOfCharacters, characterThreshold);
+        return textArea;
+    }
+
+    /**
+     * Returns the given instance to the pool, its text is cleared right away
+     * so that the pool does not keep large texts alive.
+     */
+    public void release(final ExpandableTextArea textArea) {
+        if (null == textArea) { return; }
+        if (null != textArea.getParent() || null != textArea.getScene()) { throw new IllegalStateException("ExpandableTextArea is still part of a scene graph"); }
+        released++;
+        if (pool.size() >= maxSize || pool.contains(textArea)) {
+            discarded++;
+            return;
+        }
+        textArea.reset("");
+        pool.addFirst(textArea);
+    }
+
+    public void clear() { pool.clear(); }
+
+    public int getSize() { return pool.size(); }
+
+    public int getMaxSize() { return maxSize; }
+
+    public long getCreated() { return created; }
+
+    public long getReused() { return reused; }
+
+    public long getReleased() { return released; }
+
+    public long getDiscarded() { return discarded; }
+
+    @Override public String toString() {
+        return "ExpandableTextAreaPool[size: " + pool.size() + "/" + maxSize + ", created: " + created + ", reused: " + reused + ", released: " + released + ", discarded: " + discarded + "]";
+    }
+}
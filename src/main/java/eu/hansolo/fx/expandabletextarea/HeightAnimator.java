@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.animation.AnimationTimer;
+import javafx.animation.Interpolator;
+import javafx.scene.Node;
+import javafx.scene.layout.Region;
+import javafx.scene.shape.Rectangle;
+import javafx.util.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Animates the visible height of regions with a clip instead of changing
+ * their layout height on every frame. The layout of the parent is only
+ * touched at the start (the caller applies the new state) and at the end of
+ * an animation. While a region shrinks its min height keeps the old height
+ * until the animation is finished.
+ * All animations share one AnimationTimer, if the updates of a frame take
+ * longer than FRAME_BUDGET_NANOS the remaining animations will be updated
+ * on the next frame. Must be used on the FX application thread.
+ */
+final class HeightAnimator {
+    static final         long            FRAME_BUDGET_NANOS = 4_000_000;
+    private static final List<Animation> ANIMATIONS         = new ArrayList<>();
+    private static final AnimationTimer  TIMER              = new AnimationTimer() {
+        @Override public void handle(final long now) { update(now); }
+    };
+    private static       int             next;
+
+
+    // ******************** Constructors **************************************
+    private HeightAnimator() {}
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Animates the visible height of the given region from fromHeight to
+     * toHeight, the region has to be laid out with its new state already.
+     * onFinished will be called after the clip has been removed.
+     */
+    static Animation animate(final Region region, final double fromHeight, final double toHeight, final Duration duration, final Runnable onFinished) {
+        Animation animation = new Animation(region, fromHeight, toHeight, duration, onFinished);
+        ANIMATIONS.add(animation);
+        TIMER.start();
+        return animation;
+    }
+
+    private static void update(final long now) {
+        long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+        int  count    = ANIMATIONS.size();
+        for (int i = 0 ; i < count && !ANIMATIONS.isEmpty() ; i++) {
+            if (next >= ANIMATIONS.size()) { next = 0; }
+            Animation animation = ANIMATIONS.get(next);
+            if (animation.update(now)) {
+                animation.finish();
+            } else {
+                next++;
+            }
+            if (System.nanoTime() > deadline) { break; }
+        }
+        if (ANIMATIONS.isEmpty()) { TIMER.stop(); }
+    }
+
+
+    // ******************** Inner Classes *************************************
+    static final class Animation {
+        private final Region    region;
+        private final double    fromHeight;
+        private final double    toHeight;
+        private final long      durationNanos;
+        private final Runnable  onFinished;
+        private final Node      previousClip;
+        private final double    previousMinHeight;
+        private final Rectangle clip;
+        private       long      start;
+        private       boolean   finished;
+
+
+        private Animation(final Region region, final double fromHeight, final double toHeight, final Duration duration, final Runnable onFinished) {
+            this.region            = region;
+            this.fromHeight        = fromHeight;
+            this.toHeight          = toHeight;
+            this.durationNanos     = (long) (duration.toMillis() * 1_000_000);
+            this.onFinished        = onFinished;
+            this.previousClip      = region.getClip();
+            this.previousMinHeight = region.getMinHeight();
+            this.clip              = new Rectangle(region.getWidth(), fromHeight);
+            this.clip.widthProperty().bind(region.widthProperty());
+            this.start             = -1;
+
+            region.setClip(clip);
+            // Keep the old height while shrinking, so the parent is only laid out at the end
+            if (toHeight < fromHeight) { region.setMinHeight(fromHeight); }
+        }
+
+
+        /**
+         * Returns the height that is visible at the moment.
+         */
+        double getHeight() { return clip.getHeight(); }
+
+        /**
+         * Removes the clip and calls onFinished immediately, e.g. if the
+         * animation is interrupted by a new one.
+         */
+        void finish() {
+            if (finished) { return; }
+            finished = true;
+            int index = ANIMATIONS.indexOf(this);
+            if (index >= 0) {
+                ANIMATIONS.remove(index);
+                if (index < next) { next--; }
+            }
+            clip.widthProperty().unbind();
+            region.setClip(previousClip);
+            if (toHeight < fromHeight) { region.setMinHeight(previousMinHeight); }
+            if (null != onFinished) { onFinished.run(); }
+        }
+
+        /**
+         * Updates the clip and returns true when the animation is complete.
+         */
+        private boolean update(final long now) {
+            if (start < 0) { start = now; }
+            double fraction = durationNanos <= 0 ? 1 : Math.min(1, (double) (now - start) / durationNanos);
+            clip.setHeight(Interpolator.EASE_BOTH.interpolate(fromHeight, toHeight, fraction));
+            return fraction >= 1;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.scene.text.Font;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * LRU cache for the wrapped lines of a text at a given font and wrapping
+ * width. Resizing a window or dragging a SplitPane divider changes the width
+ * on every mouse move, widths that were seen before will be taken from the
+ * cache instead of measuring the text again.
+ * Widths are rounded to buckets of bucketSize pixels, a bigger bucket size
+ * leads to more hits but the number of lines might be off by one close to
+ * the width where a line wraps. Every ExpandableTextArea has its own small
+ * cache, one cache can be shared by many instances that show the same texts
+ * e.g. in a ListView. The cache can be used from any thread.
+ * Texts are identified by two independent hashes plus the lengths of all
+ * paragraphs, so two different texts will not share an entry in practice
+ * even if one of the hashes collides.
+ */
+public final class HeightCache {
+    public  static final int                     DEFAULT_SIZE        = 8;
+    public  static final double                  DEFAULT_BUCKET_SIZE = 1;
+    /** Upper limit for the paragraphs of all entries together, maxSize * paragraphs per entry */
+    private static final int                     MAX_PARAGRAPHS      = 1 << 20;
+    private        final Map<Key, int[]>         entries;
+    private        final int                     maxSize;
+    private        final double                  bucketSize;
+    private              long                    hits;
+    private              long                    misses;
+    private              long                    evictions;
+
+
+    // ******************** Constructors **************************************
+    public HeightCache() {
+        this(DEFAULT_SIZE, DEFAULT_BUCKET_SIZE);
+    }
+    public HeightCache(final int maxSize, final double bucketSize) {
+        if (maxSize < 1) { throw new IllegalArgumentException("maxSize must be at least 1"); }
+        if (!(bucketSize > 0)) { throw new IllegalArgumentException("bucketSize must be positive"); }
+        this.entries    = new LinkedHashMap<>(16, 0.75f, true);
+        this.maxSize    = maxSize;
+        this.bucketSize = bucketSize;
+    }
+
+
+    // ******************** Methods *******************************************
+    public int getMaxSize() { return maxSize; }
+
+    public double getBucketSize() { return bucketSize; }
+
+    public synchronized int getSize() { return entries.size(); }
+
+    public synchronized long getHits() { return hits; }
+
+    public synchronized long getMisses() { return misses; }
+
+    public synchronized long getEvictions() { return evictions; }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return 0 == lookups ? 0 : (double) hits / lookups;
+    }
+
+    public synchronized void clear() { entries.clear(); }
+
+    public synchronized void resetStatistics() {
+        hits      = 0;
+        misses    = 0;
+        evictions = 0;
+    }
+
+    @Override public synchronized String toString() {
+        return "HeightCache[size: " + entries.size() + "/" + maxSize + ", bucket size: " + bucketSize + ", hits: " + hits + ", misses: " + misses + ", evictions: " + evictions + "]";
+    }
+
+    /**
+     * Returns the wrapped lines per paragraph of the text with the given
+     * hashes and paragraph lengths or null if they are not cached. Only the
+     * first noOfParagraphs paragraph lengths are used. The returned array
+     * must not be modified.
+     */
+    synchronized int[] get(final long textHash, final long textHash2, final int[] paragraphLengths, final int noOfParagraphs, final Font font, final double wrappingWidth) {
+        int[] wrappedLines = entries.get(new Key(textHash, textHash2, paragraphLengths, noOfParagraphs, font, getBucket(wrappingWidth)));
+        if (null == wrappedLines) { misses++; } else { hits++; }
+        return wrappedLines;
+    }
+
+    /**
+     * Stores the wrapped lines per paragraph, the array must not be modified
+     * afterwards. The paragraph lengths will be copied. Texts with too many
+     * paragraphs will not be cached.
+     */
+    synchronized void put(final long textHash, final long textHash2, final int[] paragraphLengths, final Font font, final double wrappingWidth, final int[] wrappedLines) {
+        if (wrappedLines.length > MAX_PARAGRAPHS / maxSize) { return; }
+        int[] lengths = Arrays.copyOf(paragraphLengths, wrappedLines.length);
+        entries.put(new Key(textHash, textHash2, lengths, lengths.length, font, getBucket(wrappingWidth)), wrappedLines);
+        Iterator<int[]> iterator = entries.values().iterator();
+        while (entries.size() > maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private long getBucket(final double wrappingWidth) { return Math.round(wrappingWidth / bucketSize); }
+
+
+    // ******************** Inner Classes *************************************
+    private static final class Key {
+        private final long   textHash;
+        private final long   textHash2;
+        private final int[]  paragraphLengths;
+        private final int    noOfParagraphs;
+        private final Font   font;
+        private final long   bucket;
+
+
+        private Key(final long textHash, final long textHash2, final int[] paragraphLengths, final int noOfParagraphs, final Font font, final long bucket) {
+            this.textHash         = textHash;
+            this.textHash2        = textHash2;
+            this.paragraphLengths = paragraphLengths;
+            this.noOfParagraphs   = noOfParagraphs;
+            this.font             = font;
+            this.bucket           = bucket;
+        }
+
+
+        @Override public boolean equals(final Object o) {
+            if (this == o) { return true; }
+            if (!(o instanceof Key)) { return false; }
+            Key key = (Key) o;
+            return textHash == key.textHash && textHash2 == key.textHash2 && noOfParagraphs == key.noOfParagraphs && bucket == key.bucket && font.equals(key.font) &&
+                   Arrays.equals(paragraphLengths, 0, noOfParagraphs, key.paragraphLengths, 0, noOfParagraphs);
+        }
+
+        // The paragraph lengths are only compared in equals() to keep lookups cheap
+        @Override public int hashCode() { return Objects.hash(textHash, textHash2, noOfParagraphs, font, bucket); }
+    }
+}
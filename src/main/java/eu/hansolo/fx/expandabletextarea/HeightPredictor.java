@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.geometry.Insets;
+import javafx.scene.text.Font;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+
+/**
+ * Predicts the heights of ExpandableTextArea controls without a Stage, a
+ * Scene or a skin, e.g. to paginate forms on a headless server.
+ * The number of lines is measured with the same LineIndex and the heights
+ * are computed with the same formulas the control uses in
+ * setToExpandedHeight() and setToFixedHeight().
+ * Can be called from any thread, batches are processed in parallel on the
+ * common ForkJoinPool.
+ */
+public final class HeightPredictor {
+
+    // ******************** Constructors **************************************
+    private HeightPredictor() {}
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Returns the predictions for the given requests in the same order.
+     */
+    public static List<Prediction> predict(final List<Request> requests) {
+        return requests.parallelStream().map(HeightPredictor::predict).collect(Collectors.toList());
+    }
+
+    public static Prediction predict(final Request request) {
+        Font      font          = TextMeasurer.get(request.font).getFont();
+        String    text          = ExpandableTextArea.toTextAreaText(request.text, request.maxNoOfCharacters);
+        double    wrappingWidth = ExpandableTextArea.getWrappingWidth(request.width, request.insets, font);
+        LineIndex index         = LineIndex.of(text, font, wrappingWidth);
+        // The index is fully measured, so it does not need the paragraphs
+        int       noOfLines     = index.getNoOfLines(Collections.emptyList());
+        double    lineHeight    = index.getLineHeight();
+        return new Prediction(noOfLines,
+                              ExpandableTextArea.getExpandedHeight(noOfLines, text.length(), request.initialNoOfLines, lineHeight),
+                              ExpandableTextArea.getFixedHeight(request.compactNoOfLines, lineHeight));
+    }
+
+
+    // ******************** Inner Classes *************************************
+    public static final class Request {
+        private final String text;
+        private final Font   font;
+        private final double width;
+        private final Insets insets;
+        private final int    compactNoOfLines;
+        private final int    initialNoOfLines;
+        private final int    maxNoOfCharacters;
+
+
+        public Request(final String text, final Font font, final double width, final int compactNoOfLines) {
+            this(text, font, width, Insets.EMPTY, compactNoOfLines, 1, Integer.MAX_VALUE);
+        }
+        /**
+         * @param width             the width of the TextArea
+         * @param insets            the insets of the TextArea, e.g. taken from a styled instance
+         * @param initialNoOfLines  see ExpandableTextArea.setInitialNoOfLines()
+         * @param maxNoOfCharacters the text will be limited like in the control
+         */
+        public Request(final String text, final Font font, final double width, final Insets insets, final int compactNoOfLines, final int initialNoOfLines, final int maxNoOfCharacters) {
+            this.text              = null == text ? "" : text;
+            this.font              = font;
+            this.width             = width;
+            this.insets            = null == insets ? Insets.EMPTY : insets;
+            this.compactNoOfLines  = compactNoOfLines;
+            this.initialNoOfLines  = initialNoOfLines;
+            this.maxNoOfCharacters = maxNoOfCharacters;
+        }
+
+
+        public String getText() { return text; }
+
+        public Font getFont() { return font; }
+
+        public double getWidth() { return width; }
+
+        public Insets getInsets() { return insets; }
+
+        public int getCompactNoOfLines() { return compactNoOfLines; }
+
+        public int getInitialNoOfLines() { return initialNoOfLines; }
+
+        public int getMaxNoOfCharacters() { return maxNoOfCharacters; }
+    }
+
+
+    public static final class Prediction {
+        private final int    expandedNoOfLines;
+        private final double expandedHeight;
+        private final double fixedHeight;
+
+
+        private Prediction(final int expandedNoOfLines, final double expandedHeight, final double fixedHeight) {
+            this.expandedNoOfLines = expandedNoOfLines;
+            this.expandedHeight    = expandedHeight;
+            this.fixedHeight       = fixedHeight;
+        }
+
+
+        public int getExpandedNoOfLines() { return expandedNoOfLines; }
+
+        /**
+         * Returns the height of the TextArea after setToExpandedHeight().
+         */
+        public double getExpandedHeight() { return expandedHeight; }
+
+        /**
+         * Returns the height of the TextArea after setToFixedHeight().
+         */
+        public double getFixedHeight() { return fixedHeight; }
+
+        @Override public String toString() { return "Prediction[lines: " + expandedNoOfLines + ", expanded: " + expandedHeight + ", fixed: " + fixedHeight + "]"; }
+    }
+}
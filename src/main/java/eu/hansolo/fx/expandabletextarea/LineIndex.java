@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.scene.text.Font;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Incremental index over the paragraphs of a TextArea.
+ * Keeps the length and the number of wrapped lines of every paragraph
+ * and is fed with the ranges of the TextFormatter.Change objects, so
+ * that only the paragraphs touched by an edit have to be measured again.
+ * The paragraphs are read from TextArea.getParagraphs() which avoids
+ * copying the whole text on every keystroke and are measured with a
+ * TextMeasurer, so no skin is needed.
+ */
+final class LineIndex {
+    private static final int          NOT_MEASURED = -1;
+    private              int[]        paragraphLengths;
+    private              int[]        wrappedLines;
+    private              int          noOfParagraphs;
+    private              int          noOfLines;
+    private              int          length;
+    private              int          dirtyFrom;
+    private              int          dirtyTo;
+    private              int          cursorParagraph;
+    private              int          cursorOffset;
+    private              boolean      editPending;
+    private              int          editStart;
+    private              int          editEnd;
+    private              TextMeasurer measurer;
+    private              double       wrappingWidth;
+    private              long         textHash;
+    private              long         textHash2;
+    private              boolean      textHashValid;
+
+
+    // ******************** Constructors **************************************
+    LineIndex() {
+        paragraphLengths = new int[16];
+        wrappedLines     = new int[16];
+        noOfParagraphs   = 1;
+        wrappedLines[0]  = NOT_MEASURED;
+        dirtyFrom        = 0;
+        dirtyTo          = 1;
+        measurer         = TextMeasurer.get(Font.getDefault());
+        wrappingWidth    = 0;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Creates a fully measured index for the given text. The text has to be
+     * in the form a TextArea stores it (paragraphs separated by '\n').
+     * Only uses the TextMeasurer and can therefore be called on any thread.
+     */
+    static LineIndex of(final CharSequence text, final Font font, final double wrappingWidth) {
+        LineIndex index = new LineIndex();
+        index.measurer      = TextMeasurer.get(font);
+        index.wrappingWidth = wrappingWidth < 1 ? 0 : wrappingWidth;
+        int length         = text.length();
+        int noOfParagraphs = 0;
+        int start          = 0;
+        for (int i = 0 ; i <= length ; i++) {
+            if (i < length && '\n' != text.charAt(i)) { continue; }
+            index.ensureCapacity(noOfParagraphs + 1);
+            index.paragraphLengths[noOfParagraphs] = i - start;
+            index.wrappedLines[noOfParagraphs]     = index.measurer.getNoOfWrappedLines(text, start, i, index.wrappingWidth);
+            index.noOfLines                       += index.wrappedLines[noOfParagraphs];
+            noOfParagraphs++;
+            start = i + 1;
+        }
+        index.noOfParagraphs = noOfParagraphs;
+        index.length         = length;
+        index.dirtyFrom      = 0;
+        index.dirtyTo        = 0;
+        return index;
+    }
+
+    /**
+     * Takes over the measurements of the given index if it was created for
+     * the same font, wrapping width and paragraph structure. Returns false if
+     * the index does not match, in this case nothing will be changed.
+     */
+    boolean load(final LineIndex index) {
+        if (!index.measurer.getFont().equals(measurer.getFont()) || Double.compare(index.wrappingWidth, wrappingWidth) != 0 ||
+            index.length != length || index.noOfParagraphs != noOfParagraphs || editPending) { return false; }
+        for (int i = 0 ; i < noOfParagraphs ; i++) {
+            if (index.paragraphLengths[i] != paragraphLengths[i]) { return false; }
+        }
+        paragraphLengths = index.paragraphLengths;
+        wrappedLines     = index.wrappedLines;
+        noOfLines        = index.noOfLines;
+        dirtyFrom        = 0;
+        dirtyTo          = 0;
+        cursorParagraph  = 0;
+        cursorOffset     = 0;
+        return true;
+    }
+
+    /**
+     * Records the range of a change that passed the TextFormatter filter.
+     * The change will be applied to the index on the next call of sync().
+     */
+    void edit(final int start, final int end, final int insertedLength) {
+        if (start == end && insertedLength == 0) { return; }
+        editPending = true;
+        editStart   = start;
+        editEnd     = end;
+    }
+
+    /**
+     * Brings the index in line with the given paragraphs. If a recorded edit
+     * is pending only the touched paragraphs will be updated, otherwise
+     * (e.g. undo/redo or a bound text property) the index will be rebuilt.
+     */
+    void sync(final List<CharSequence> paragraphs, final int newLength) {
+        textHashValid = false;
+        if (editPending) {
+            editPending = false;
+            int insertedLength = newLength - (length - (editEnd - editStart));
+            if (editEnd <= length && insertedLength >= 0) {
+                apply(paragraphs, newLength, insertedLength);
+                return;
+            }
+        }
+        rebuild(paragraphs, newLength);
+    }
+
+    void rebuild(final List<CharSequence> paragraphs, final int newLength) {
+        int size = Math.max(1, paragraphs.size());
+        ensureCapacity(size);
+        for (int i = 0 ; i < paragraphs.size() ; i++) { paragraphLengths[i] = paragraphs.get(i).length(); }
+        if (paragraphs.isEmpty()) { paragraphLengths[0] = 0; }
+        noOfParagraphs  = size;
+        length          = newLength;
+        editPending     = false;
+        textHashValid   = false;
+        cursorParagraph = 0;
+        cursorOffset    = 0;
+        invalidate();
+    }
+
+    void invalidate() {
+        Arrays.fill(wrappedLines, 0, noOfParagraphs, NOT_MEASURED);
+        noOfLines = 0;
+        dirtyFrom = 0;
+        dirtyTo   = noOfParagraphs;
+    }
+
+    void setFont(final Font font) {
+        TextMeasurer newMeasurer = TextMeasurer.get(font);
+        if (newMeasurer.getFont().equals(measurer.getFont())) { return; }
+        measurer = newMeasurer;
+        invalidate();
+    }
+
+    void setWrappingWidth(final double wrappingWidth) {
+        double newWidth = wrappingWidth < 1 ? 0 : wrappingWidth;
+        if (Double.compare(newWidth, this.wrappingWidth) == 0) { return; }
+        this.wrappingWidth = newWidth;
+        invalidate();
+    }
+
+    /**
+     * Sets the font and the wrapping width like setFont() and
+     * setWrappingWidth() but keeps the measurements for the old values in
+     * the given cache and takes the measurements for the new values from it
+     * if possible, so resizing back and forth will not measure the text again.
+     */
+    void update(final Font font, final double wrappingWidth, final List<CharSequence> paragraphs, final HeightCache cache) {
+        TextMeasurer newMeasurer = TextMeasurer.get(font);
+        double       newWidth    = wrappingWidth < 1 ? 0 : wrappingWidth;
+        if (newMeasurer.getFont().equals(measurer.getFont()) && Double.compare(newWidth, this.wrappingWidth) == 0) { return; }
+        boolean cacheable = null != cache && !editPending && paragraphs.size() == noOfParagraphs;
+        if (cacheable && dirtyFrom >= dirtyTo) {
+            updateTextHash(paragraphs);
+            cache.put(textHash, textHash2, paragraphLengths, measurer.getFont(), this.wrappingWidth, Arrays.copyOf(wrappedLines, noOfParagraphs));
+        }
+        measurer           = newMeasurer;
+        this.wrappingWidth = newWidth;
+        if (cacheable) { updateTextHash(paragraphs); }
+        int[] cached = cacheable ? cache.get(textHash, textHash2, paragraphLengths, noOfParagraphs, measurer.getFont(), newWidth) : null;
+        if (null == cached || cached.length != noOfParagraphs) {
+            invalidate();
+            return;
+        }
+        System.arraycopy(cached, 0, wrappedLines, 0, noOfParagraphs);
+        noOfLines = 0;
+        for (int i = 0 ; i < noOfParagraphs ; i++) { noOfLines += cached[i]; }
+        dirtyFrom = 0;
+        dirtyTo   = 0;
+    }
+
+    double getLineHeight() { return measurer.getLineHeight(); }
+
+    int getLength() { return length; }
+
+    int getNoOfParagraphs() { return noOfParagraphs; }
+
+    int getNoOfLineBreaks() { return noOfParagraphs - 1; }
+
+    /**
+     * Returns the number of visual lines of the whole text. Only paragraphs
+     * that were touched since the last call will be measured.
+     */
+    int getNoOfLines(final List<CharSequence> paragraphs) {
+        if (dirtyFrom < dirtyTo) {
+            int to = Math.min(dirtyTo, Math.min(noOfParagraphs, paragraphs.size()));
+            for (int i = dirtyFrom ; i < to ; i++) {
+                if (NOT_MEASURED == wrappedLines[i]) {
+                    wrappedLines[i] = measure(paragraphs.get(i));
+                    noOfLines += wrappedLines[i];
+                }
+            }
+            dirtyFrom = 0;
+            dirtyTo   = 0;
+        }
+        return Math.max(1, noOfLines);
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private void apply(final List<CharSequence> paragraphs, final int newLength, final int insertedLength) {
+        int firstParagraph = paragraphAt(editStart);
+        int firstOffset    = cursorOffset;
+        int lastParagraph  = firstParagraph;
+        int lastEnd        = firstOffset + paragraphLengths[firstParagraph];
+        while (lastEnd < editEnd && lastParagraph < noOfParagraphs - 1) {
+            lastParagraph++;
+            lastEnd += 1 + paragraphLengths[lastParagraph];
+        }
+
+        // Walk the new paragraphs that cover the edited region
+        int newRegionEnd = lastEnd + insertedLength - (editEnd - editStart);
+        int newLast      = firstParagraph;
+        int offset       = firstOffset;
+        while (offset + paragraphs.get(newLast).length() < newRegionEnd && newLast < paragraphs.size() - 1) {
+            offset += paragraphs.get(newLast).length() + 1;
+            newLast++;
+        }
+
+        int delta = newLast - lastParagraph;
+        for (int i = firstParagraph ; i <= lastParagraph ; i++) {
+            if (NOT_MEASURED != wrappedLines[i]) { noOfLines -= wrappedLines[i]; }
+        }
+        if (delta != 0) {
+            ensureCapacity(noOfParagraphs + delta);
+            int tail = noOfParagraphs - lastParagraph - 1;
+            System.arraycopy(paragraphLengths, lastParagraph + 1, paragraphLengths, newLast + 1, tail);
+            System.arraycopy(wrappedLines, lastParagraph + 1, wrappedLines, newLast + 1, tail);
+            noOfParagraphs += delta;
+        }
+        for (int i = firstParagraph ; i <= newLast ; i++) {
+            paragraphLengths[i] = paragraphs.get(i).length();
+            wrappedLines[i]     = NOT_MEASURED;
+        }
+        length = newLength;
+
+        // Shift the pending dirty range and merge it with the edited paragraphs
+        if (dirtyFrom < dirtyTo) {
+            int from = dirtyFrom <= firstParagraph ? dirtyFrom : (dirtyFrom > lastParagraph ? dirtyFrom + delta : firstParagraph);
+            int to   = dirtyTo   <= firstParagraph ? dirtyTo   : (dirtyTo > lastParagraph + 1 ? dirtyTo + delta : newLast + 1);
+            dirtyFrom = Math.min(from, firstParagraph);
+            dirtyTo   = Math.max(to, newLast + 1);
+        } else {
+            dirtyFrom = firstParagraph;
+            dirtyTo   = newLast + 1;
+        }
+        cursorParagraph = firstParagraph;
+        cursorOffset    = firstOffset;
+    }
+
+    /**
+     * Returns the index of the paragraph that contains the given offset and
+     * moves the cursor to its start. Starts at the last cursor position which
+     * keeps the lookup cheap while typing.
+     */
+    private int paragraphAt(final int offset) {
+        int paragraph = Math.min(cursorParagraph, noOfParagraphs - 1);
+        int start     = paragraph == cursorParagraph ? cursorOffset : 0;
+        if (paragraph != cursorParagraph) { paragraph = 0; }
+        while (offset < start && paragraph > 0) {
+            paragraph--;
+            start -= paragraphLengths[paragraph] + 1;
+        }
+        while (offset > start + paragraphLengths[paragraph] && paragraph < noOfParagraphs - 1) {
+            start += paragraphLengths[paragraph] + 1;
+            paragraph++;
+        }
+        cursorParagraph = paragraph;
+        cursorOffset    = start;
+        return paragraph;
+    }
+
+    /**
+     * Computes two independent hashes over all paragraphs, a polynomial one
+     * and FNV-1a. They are only computed again after the text has changed.
+     */
+    private void updateTextHash(final List<CharSequence> paragraphs) {
+        if (textHashValid) { return; }
+        long hash  = 1;
+        long hash2 = 0xcbf29ce484222325L;
+        for (int i = 0 ; i < paragraphs.size() ; i++) {
+            CharSequence paragraph = paragraphs.get(i);
+            for (int j = 0 ; j < paragraph.length() ; j++) {
+                char c = paragraph.charAt(j);
+                hash  = 31 * hash + c;
+                hash2 = (hash2 ^ c) * 0x100000001b3L;
+            }
+            hash  = 31 * hash + '\n';
+            hash2 = (hash2 ^ '\n') * 0x100000001b3L;
+        }
+        textHash      = hash;
+        textHash2     = hash2;
+        textHashValid = true;
+    }
+
+    private int measure(final CharSequence paragraph) {
+        return measurer.getNoOfWrappedLines(paragraph, 0, paragraph.length(), wrappingWidth);
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity <= paragraphLengths.length) { return; }
+        int newCapacity  = Math.max(capacity, paragraphLengths.length + (paragraphLengths.length >> 1));
+        paragraphLengths = Arrays.copyOf(paragraphLengths, newCapacity);
+        wrappedLines     = Arrays.copyOf(wrappedLines, newCapacity);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * Read only view of a text file that is memory mapped instead of being read
+ * into the heap. The offsets of the lines are indexed on a background thread,
+ * lines are only decoded when they are requested. Lines are separated by
+ * '\n', so only charsets that encode '\n' as a single byte (e.g. UTF-8,
+ * ISO-8859-1) are supported.
+ */
+public final class MappedTextFile {
+    public  static final int                     MAX_LINE_BYTES = 64 * 1024;
+    private static final int                     REGION_SIZE    = 1 << 30;
+    private static final int                     CHUNK_SIZE     = 1 << 16;
+    private static final long                    PROGRESS_BYTES = 16L * 1024 * 1024;
+    private        final Path                    path;
+    private        final Charset                 charset;
+    private        final long                    size;
+    private        final MappedByteBuffer[]      regions;
+    private        final Runnable                progressListener;
+    private        final CompletableFuture<Void> indexed;
+    private volatile     long[][]                lineStarts;
+    private volatile     int                     noOfLineStarts;
+    private volatile     boolean                 complete;
+    private volatile     boolean                 closed;
+
+
+    // ******************** Constructors **************************************
+    private MappedTextFile(final Path path, final Charset charset, final Runnable progressListener) throws IOException {
+        if (!Arrays.equals("\n".getBytes(charset), new byte[] { '\n' })) { throw new IllegalArgumentException("Charset " + charset + " is not supported"); }
+        this.path             = path;
+        this.charset          = charset;
+        this.progressListener = progressListener;
+        this.indexed          = new CompletableFuture<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.size    = channel.size();
+            this.regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+            for (int i = 0 ; i < regions.length ; i++) {
+                long position = (long) i * REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, size - position));
+            }
+        }
+        this.lineStarts     = new long[][] { new long[CHUNK_SIZE] };
+        this.noOfLineStarts = 1;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Maps the given file and starts to index its lines in the background.
+     * The optional progress listener will be called on the indexing thread
+     * whenever new lines have been indexed and when the index is complete.
+     */
+    public static MappedTextFile open(final Path path, final Charset charset, final Runnable progressListener) throws IOException {
+        MappedTextFile file = new MappedTextFile(path, charset, progressListener);
+        CompletableFuture.runAsync(file::index, ExpandableTextArea.TEXT_EXECUTOR);
+        return file;
+    }
+
+    public Path getPath() { return path; }
+
+    public Charset getCharset() { return charset; }
+
+    public long getSize() { return size; }
+
+    public boolean isIndexed() { return complete; }
+
+    /**
+     * Returns a future that completes when all lines have been indexed.
+     */
+    public CompletableFuture<Void> indexed() { return indexed; }
+
+    /**
+     * Returns the number of lines that are indexed so far, a line is only
+     * counted once its end is known.
+     */
+    public int getNoOfLines() {
+        int noOfLineStarts = this.noOfLineStarts;
+        return complete ? noOfLineStarts : noOfLineStarts - 1;
+    }
+
+    /**
+     * Decodes the lines [fromLine, toLine) and returns them separated by
+     * '\n'. Lines longer than MAX_LINE_BYTES will be cut.
+     */
+    public String getLines(final int fromLine, final int toLine) {
+        if (closed) { throw new IllegalStateException("File " + path + " is closed"); }
+        int noOfLines = getNoOfLines();
+        if (fromLine < 0 || toLine > noOfLines || fromLine > toLine) { throw new IndexOutOfBoundsException("from: " + fromLine + ", to: " + toLine + ", lines: " + noOfLines); }
+        StringBuilder builder = new StringBuilder();
+        byte[]        bytes   = new byte[0];
+        for (int line = fromLine ; line < toLine ; line++) {
+            if (line > fromLine) { builder.append('\n'); }
+            long start  = getLineStart(line);
+            long end    = line + 1 < noOfLineStarts ? getLineStart(line + 1) - 1 : size;
+            int  length = (int) Math.min(MAX_LINE_BYTES, end - start);
+            if (bytes.length < length) { bytes = new byte[length]; }
+            read(start, bytes, length);
+            builder.append(new String(bytes, 0, length, charset));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Stops the indexing and drops the references to the mapped buffers,
+     * getLines() must not be called afterwards. The future returned by
+     * indexed() will be cancelled if the index is not complete yet.
+     * There is no public API to unmap a buffer, the mapping is released
+     * when the buffers are garbage collected. So on Windows the file may
+     * stay locked until the next garbage collection.
+     */
+    public void close() {
+        closed = true;
+        indexed.cancel(false);
+        Arrays.fill(regions, null);
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private long getLineStart(final int line) { return lineStarts[line / CHUNK_SIZE][line % CHUNK_SIZE]; }
+
+    private void read(final long position, final byte[] target, final int length) {
+        int offset = 0;
+        while (offset < length) {
+            long             pos    = position + offset;
+            MappedByteBuffer region = regions[(int) (pos / REGION_SIZE)];
+            int              index  = (int) (pos % REGION_SIZE);
+            int              count  = Math.min(length - offset, region.limit() - index);
+            // Absolute bulk reads are not available before JDK 13, so use a duplicate per call
+            region.duplicate().position(index).get(target, offset, count);
+            offset += count;
+        }
+    }
+
+    private void index() {
+        try {
+            long[][] starts       = lineStarts;
+            int      count        = noOfLineStarts;
+            long     nextProgress = PROGRESS_BYTES;
+            for (int r = 0 ; r < regions.length && !closed ; r++) {
+                MappedByteBuffer region = regions[r];
+                if (null == region) { return; }
+                long             base   = (long) r * REGION_SIZE;
+                int              limit  = region.limit();
+                for (int i = 0 ; i < limit ; i++) {
+                    if ('\n' != region.get(i)) { continue; }
+                    if (count % CHUNK_SIZE == 0 && count / CHUNK_SIZE == starts.length) {
+                        starts = Arrays.copyOf(starts, starts.length * 2);
+                    }
+                    if (null == starts[count / CHUNK_SIZE]) { starts[count / CHUNK_SIZE] = new long[CHUNK_SIZE]; }
+                    starts[count / CHUNK_SIZE][count % CHUNK_SIZE] = base + i + 1;
+                    count++;
+                    if (base + i > nextProgress) {
+                        if (closed) { return; }
+                        publish(starts, count);
+                        nextProgress += PROGRESS_BYTES;
+                    }
+                }
+            }
+            if (closed) { return; }
+            lineStarts     = starts;
+            noOfLineStarts = count;
+            complete       = true;
+            indexed.complete(null);
+            if (null != progressListener) { progressListener.run(); }
+        } catch (Throwable t) {
+            indexed.completeExceptionally(t);
+        }
+    }
+
+    private void publish(final long[][] starts, final int count) {
+        // lineStarts has to be written before the volatile count
+        lineStarts     = starts;
+        noOfLineStarts = count;
+        if (null != progressListener) { progressListener.run(); }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.application.Platform;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+
+
+/**
+ * Dirty flag scheduler that collapses any number of requests into one
+ * execution of the given task per pulse. The task runs in the pre layout
+ * phase of the pulse of the scene the node belongs to. If the node is not
+ * part of a scene the task stays pending until flush() is called or the
+ * node is added to a scene. Can be used from other threads as long as the
+ * scene is not showing.
+ */
+final class PulseScheduler {
+    private final    Node     node;
+    private final    Runnable task;
+    private final    Runnable pulseListener;
+    // schedule() can run on any thread, sync() runs on the FX application thread
+    private volatile Scene    registeredScene;
+    private volatile boolean  dirty;
+    private          long     requested;
+    private          long     executed;
+
+
+    // ******************** Constructors **************************************
+    PulseScheduler(final Node node, final Runnable task) {
+        this.node          = node;
+        this.task          = task;
+        this.pulseListener = this::flush;
+        this.node.sceneProperty().addListener((o, ov, nv) -> {
+            unregister();
+            if (dirty) { register(nv); }
+        });
+    }
+
+
+    // ******************** Methods *******************************************
+    void schedule() {
+        requested++;
+        if (dirty) { return; }
+        dirty = true;
+        register(node.getScene());
+    }
+
+    void flush() {
+        unregister();
+        if (!dirty) { return; }
+        dirty = false;
+        executed++;
+        task.run();
+    }
+
+    boolean isDirty() { return dirty; }
+
+    long getRequested() { return requested; }
+
+    long getExecuted() { return executed; }
+
+    long getCoalesced() { return requested - executed - (dirty ? 1 : 0); }
+
+
+    // ******************** Private Methods ***********************************
+    private void register(final Scene scene) {
+        if (null == scene || null != registeredScene) { return; }
+        if (!Platform.isFxApplicationThread()) {
+            Platform.runLater(this::sync);
+            return;
+        }
+        registeredScene = scene;
+        registeredScene.addPreLayoutPulseListener(pulseListener);
+        Platform.requestNextPulse();
+    }
+
+    private void unregister() {
+        if (null == registeredScene) { return; }
+        if (!Platform.isFxApplicationThread()) {
+            Platform.runLater(this::sync);
+            return;
+        }
+        registeredScene.removePreLayoutPulseListener(pulseListener);
+        registeredScene = null;
+    }
+
+    /**
+     * Registers the pulse listener at the current scene of the node if the
+     * task is pending and removes it otherwise. Pulse listeners can only be
+     * changed on the FX application thread, but scenes that are not showing
+     * can be built on any thread, in this case sync() runs later on the FX
+     * application thread.
+     */
+    private void sync() {
+        boolean pending    = dirty;
+        Scene   registered = registeredScene;
+        Scene   scene      = pending ? node.getScene() : null;
+        if (scene == registered) { return; }
+        unregister();
+        register(scene);
+    }
+}
@@ -0,0 +1,476 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import javafx.scene.text.TextBoundsType;
+
+import java.text.BreakIterator;
+import java.text.CharacterIterator;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+
+/**
+ * Measures text for a given font without the need of a skin or a scene.
+ * The advance of every glyph is measured once and kept in a per font cache
+ * that is keyed by code point. The glyphs of the ASCII range are kept in an
+ * array that is filled on first use and read without locking, all other
+ * glyphs in a LRU cache of limited size.
+ * Instances are shared per font and can be used from any thread, texts that
+ * only contain ASCII can be measured by several threads at the same time.
+ */
+public final class TextMeasurer {
+    public  static final int                     MAX_NO_OF_GLYPHS = 4096;
+    public  static final int                     MAX_NO_OF_FONTS  = 32;
+    private static final int                     TAB_SIZE         = 8;
+    // Longer texts are not taken from the layout cache of JavaFX which ignores the bounds type
+    private static final String                  LINE_SAMPLE      = "X".repeat(257);
+    private static final Map<Font, TextMeasurer> MEASURERS        = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(final Map.Entry<Font, TextMeasurer> eldest) { return size() > MAX_NO_OF_FONTS; }
+    };
+    private        final Font                    font;
+    private volatile     double[]                asciiAdvances;
+    private        final Map<Integer, Double>    glyphAdvances;
+    private        final Text                    helper;
+    private              double                  lineHeight;
+
+
+    // ******************** Constructors **************************************
+    private TextMeasurer(final Font font) {
+        this.font          = font;
+        this.glyphAdvances = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(final Map.Entry<Integer, Double> eldest) { return size() > MAX_NO_OF_GLYPHS; }
+        };
+        this.helper        = new Text();
+        this.helper.setFont(font);
+        // The default stylesheet centers the text nodes of all controls vertically which rounds their line metrics
+        this.helper.setBoundsType(TextBoundsType.LOGICAL_VERTICAL_CENTER);
+        this.lineHeight    = -1;
+    }
+
+
+    // ******************** Methods *******************************************
+    /**
+     * Returns the shared measurer for the given font, the default font will
+     * be used if font is null.
+     */
+    public static TextMeasurer get(final Font font) {
+        Font key = null == font ? Font.getDefault() : font;
+        synchronized (MEASURERS) {
+            return MEASURERS.computeIfAbsent(key, TextMeasurer::new);
+        }
+    }
+
+    public Font getFont() { return font; }
+
+    public synchronized double getLineHeight() {
+        if (lineHeight < 0) {
+            helper.setText(LINE_SAMPLE);
+            lineHeight = helper.getLayoutBounds().getHeight();
+        }
+        return lineHeight;
+    }
+
+    public double getAdvance(final int codePoint) { return advance(getAsciiAdvances(), codePoint); }
+
+    public double computeWidth(final CharSequence text, final int start, final int end) {
+        double[] ascii = getAsciiAdvances();
+        double   width = 0;
+        int      i     = start;
+        while (i < end) {
+            int codePoint = Character.codePointAt(text, i);
+            width += '\t' == codePoint ? tabAdvance(ascii, width) : advance(ascii, codePoint);
+            i     += Character.charCount(codePoint);
+        }
+        return width;
+    }
+
+    /**
+     * Returns the number of lines the whole text will need when it is
+     * wrapped at the given width. Paragraphs are separated by '\n' like in
+     * a TextArea.
+     */
+    public int getNoOfLines(final CharSequence text, final double wrappingWidth) {
+        if (null == text) { return 1; }
+        int noOfLines = 0;
+        int start     = 0;
+        int length    = text.length();
+        for (int i = 0 ; i < length ; i++) {
+            if ('\n' == text.charAt(i)) {
+                noOfLines += getNoOfWrappedLines(text, start, i, wrappingWidth);
+                start      = i + 1;
+            }
+        }
+        return noOfLines + getNoOfWrappedLines(text, start, length, wrappingWidth);
+    }
+
+    /**
+     * Returns the number of lines a single paragraph needs when it is wrapped
+     * at the given width. Lines are broken like the TextArea does, in front
+     * of a word or, if the paragraph contains CJK or complex text, at the
+     * boundaries found by BreakIterator.getLineInstance(). Words that are
+     * wider than the wrapping width are broken between two code points.
+     * The TextArea looks for CJK and complex text in its whole text, the
+     * measurer only in the given paragraph.
+     * A wrapping width of zero or less disables wrapping.
+     */
+    public int getNoOfWrappedLines(final CharSequence text, final int start, final int end, final double wrappingWidth) {
+        if (end <= start || wrappingWidth <= 0) { return 1; }
+        return wrap(text, start, end, wrappingWidth, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the offsets at which the lines of a single paragraph start when
+     * it is wrapped at the given width, the first offset is always start.
+     * The end of every line is found with a binary search over the
+     * cumulative advances of the glyphs, so a long paragraph only costs one
+     * pass over its glyphs plus O(log n) per line.
+     */
+    public int[] getLineStarts(final CharSequence text, final int start, final int end, final double wrappingWidth) {
+        return getLineStarts(text, start, end, wrappingWidth, Integer.MAX_VALUE);
+    }
+    /**
+     * Returns the offsets of the first maxNoOfLines lines only, the glyphs
+     * after these lines will not be looked at.
+     */
+    public int[] getLineStarts(final CharSequence text, final int start, final int end, final double wrappingWidth, final int maxNoOfLines) {
+        if (end <= start || wrappingWidth <= 0 || maxNoOfLines <= 1) { return new int[] { start }; }
+        IntStream.Builder lineStarts = IntStream.builder();
+        wrap(text, start, end, wrappingWidth, lineStarts, maxNoOfLines);
+        return lineStarts.build().toArray();
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private int wrap(final CharSequence text, final int start, final int end, final double wrappingWidth, final IntConsumer lineStarts, final int maxNoOfLines) {
+        if (null != lineStarts) { lineStarts.accept(start); }
+        Advances      advances  = new Advances(text, end, getAsciiAdvances());
+        BreakIterator iterator  = null;
+        boolean       analyzed  = false;
+        int           noOfLines = 1;
+        int           lineStart = start;
+        while (true) {
+            int lineEnd = advances.fit(lineStart, wrappingWidth);
+            // The advance of a tab depends on its position in the line
+            if (advances.hasTab()) { return noOfLines - 1 + wrapLinear(text, lineStart, end, wrappingWidth, lineStarts, maxNoOfLines - noOfLines + 1); }
+            if (lineEnd >= end) { return noOfLines; }
+            // Don't split a surrogate pair
+            if (lineEnd > lineStart && Character.isLowSurrogate(text.charAt(lineEnd)) && Character.isHighSurrogate(text.charAt(lineEnd - 1))) { lineEnd--; }
+            if (!analyzed) {
+                analyzed = true;
+                if (hasComplexText(text, start, end)) {
+                    iterator = BreakIterator.getLineInstance();
+                    iterator.setText(new CharSequenceIterator(text, start, end));
+                }
+            }
+            // One space that doesn't fit stays at the end of the line
+            int offset = lineEnd;
+            if (' ' == text.charAt(offset) && offset + 1 < end) { offset++; }
+            int boundary;
+            if (null == iterator) {
+                boundary = findWordStart(text, lineStart, offset);
+            } else {
+                boundary = iterator.isBoundary(offset) ? offset : iterator.preceding(offset);
+            }
+            // Keep at least one code point per line
+            int next = boundary > lineStart ? boundary : Math.max(lineEnd, lineStart + Character.charCount(Character.codePointAt(text, lineStart)));
+            if (next >= end) { return noOfLines; }
+            if (noOfLines == maxNoOfLines) { return noOfLines; }
+            noOfLines++;
+            lineStart = next;
+            if (null != lineStarts) { lineStarts.accept(lineStart); }
+        }
+    }
+
+    /**
+     * Returns the start of the word at or before offset, which is where the
+     * TextArea breaks lines that contain neither CJK nor complex text.
+     * Returns lineStart if no word starts after it.
+     */
+    private static int findWordStart(final CharSequence text, final int lineStart, final int offset) {
+        int     index      = offset;
+        boolean whitespace = Character.isWhitespace(text.charAt(index));
+        while (index > lineStart) {
+            boolean previous = Character.isWhitespace(text.charAt(index - 1));
+            if (!whitespace && previous) { break; }
+            whitespace = previous;
+            index--;
+        }
+        return index;
+    }
+
+    /**
+     * Returns true if the paragraph contains ideographs, right to left text
+     * or scripts that need shaping. The TextArea only uses a BreakIterator
+     * to find line break opportunities in such paragraphs.
+     */
+    private static boolean hasComplexText(final CharSequence text, final int start, final int end) {
+        int i = start;
+        while (i < end) {
+            int codePoint = Character.codePointAt(text, i);
+            i += Character.charCount(codePoint);
+            if (codePoint < 0x0300) { continue; }
+            if (Character.isIdeographic(codePoint) || isComplexCharCode(codePoint)) { return true; }
+            switch (Character.getDirectionality(codePoint)) {
+                case Character.DIRECTIONALITY_RIGHT_TO_LEFT:
+                case Character.DIRECTIONALITY_RIGHT_TO_LEFT_ARABIC:
+                case Character.DIRECTIONALITY_RIGHT_TO_LEFT_EMBEDDING:
+                case Character.DIRECTIONALITY_RIGHT_TO_LEFT_OVERRIDE:
+                case Character.DIRECTIONALITY_RIGHT_TO_LEFT_ISOLATE: return true;
+                default: break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The ranges in which JavaFX shapes the text: combining diacritical
+     * marks, Hebrew, Arabic, Indic, Thai, Tibetan, Myanmar, old Hangul,
+     * Khmer, joiners and directional controls.
+     */
+    private static boolean isComplexCharCode(final int codePoint) {
+        return (codePoint >= 0x0300 && codePoint <= 0x036F) ||
+               (codePoint >= 0x0590 && codePoint <= 0x06FF) ||
+               (codePoint >= 0x0900 && codePoint <= 0x0E7F) ||
+               (codePoint >= 0x0F00 && codePoint <= 0x109F) ||
+               (codePoint >= 0x1100 && codePoint <= 0x11FF) ||
+               (codePoint >= 0x1780 && codePoint <= 0x17FF) ||
+               (codePoint >= 0x200C && codePoint <= 0x200D) ||
+               (codePoint >= 0x202A && codePoint <= 0x202E) ||
+               (codePoint >= 0x206A && codePoint <= 0x206F);
+    }
+
+    /**
+     * Wraps the rest of a paragraph that contains tabs in one pass over its
+     * glyphs, lines are broken after whitespace. The given start is a line
+     * start that has already been passed to lineStarts.
+     */
+    private int wrapLinear(final CharSequence text, final int start, final int end, final double wrappingWidth, final IntConsumer lineStarts, final int maxNoOfLines) {
+        double[] ascii           = getAsciiAdvances();
+        int      noOfLines       = 1;
+        double   x               = 0;
+        double   widthSinceBreak = 0;
+        boolean  hasBreak        = false;
+        int      breakIndex      = start;
+        int      i               = start;
+        while (i < end) {
+            int codePoint = Character.codePointAt(text, i);
+            i += Character.charCount(codePoint);
+            if ('\t' == codePoint) {
+                x               += tabAdvance(ascii, x);
+                widthSinceBreak  = 0;
+                hasBreak         = true;
+                breakIndex       = i;
+                continue;
+            }
+            double advance = advance(ascii, codePoint);
+            if (Character.isWhitespace(codePoint)) {
+                // Trailing whitespace never wraps
+                x               += advance;
+                widthSinceBreak  = 0;
+                hasBreak         = true;
+                breakIndex       = i;
+            } else if (x + advance > wrappingWidth && x > 0) {
+                if (noOfLines == maxNoOfLines) { return noOfLines; }
+                noOfLines++;
+                if (null != lineStarts) { lineStarts.accept(hasBreak ? breakIndex : i - Character.charCount(codePoint)); }
+                x               = hasBreak ? widthSinceBreak + advance : advance;
+                widthSinceBreak = x;
+                hasBreak        = false;
+            } else {
+                x               += advance;
+                widthSinceBreak += advance;
+            }
+        }
+        return noOfLines;
+    }
+
+    /**
+     * Returns the advances of the ASCII range, the array is filled completely
+     * before it is published and never modified afterwards.
+     */
+    private double[] getAsciiAdvances() {
+        double[] ascii = asciiAdvances;
+        if (null != ascii) { return ascii; }
+        synchronized (this) {
+            if (null == asciiAdvances) {
+                double[] advances = new double[128];
+                for (int codePoint = 0 ; codePoint < advances.length ; codePoint++) { advances[codePoint] = measure(codePoint); }
+                asciiAdvances = advances;
+            }
+            return asciiAdvances;
+        }
+    }
+
+    private double advance(final double[] ascii, final int codePoint) {
+        return codePoint < 128 ? ascii[codePoint] : glyphAdvance(codePoint);
+    }
+
+    private synchronized double glyphAdvance(final int codePoint) {
+        Double advance = glyphAdvances.get(codePoint);
+        if (null == advance) {
+            advance = measure(codePoint);
+            glyphAdvances.put(codePoint, advance);
+        }
+        return advance;
+    }
+
+    private double tabAdvance(final double[] ascii, final double x) {
+        double tabWidth = TAB_SIZE * ascii[' '];
+        if (tabWidth <= 0) { return 0; }
+        return (Math.floor(x / tabWidth) + 1) * tabWidth - x;
+    }
+
+    private double measure(final int codePoint) {
+        helper.setText(new String(Character.toChars(codePoint)));
+        return helper.getLayoutBounds().getWidth();
+    }
+
+
+    // ******************** Inner Classes *************************************
+    /**
+     * Cumulative advances of the glyphs of a paragraph in a window that
+     * slides along with the lines, so every glyph is looked up only once
+     * and huge paragraphs don't need an array of their full length.
+     */
+    private final class Advances {
+        private static final int          WINDOW = 4096;
+        private        final CharSequence text;
+        private        final int          end;
+        private        final double[]     ascii;
+        private              double[]     x;
+        private              int          base;
+        private              int          filled;
+        private              boolean      tab;
+
+
+        private Advances(final CharSequence text, final int end, final double[] ascii) {
+            this.text  = text;
+            this.end   = end;
+            this.ascii = ascii;
+            this.x     = new double[WINDOW + 1];
+        }
+
+
+        /**
+         * Returns the largest offset so that the glyphs between from and the
+         * offset fit into the given width, the offset may be in the middle
+         * of a surrogate pair. The given offset must not be before the
+         * offset of the previous call.
+         */
+        private int fit(final int from, final double wrappingWidth) {
+            if (0 == filled) { base = from; }
+            // The caller might have skipped whitespace that was not looked up yet
+            while (base + filled < from) { fillNext(from); }
+            double limit = x[from - base] + wrappingWidth;
+            while (x[filled] <= limit && base + filled < end) { fillNext(from); }
+            // Largest index with x[index] <= limit
+            int low  = from - base;
+            int high = filled;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (x[mid] <= limit) { low = mid; } else { high = mid - 1; }
+            }
+            return base + low;
+        }
+
+        private boolean hasTab() { return tab; }
+
+        private void fillNext(final int from) {
+            if (filled + 2 >= x.length) {
+                int offset = Math.min(from, base + filled) - base;
+                if (offset > 0) {
+                    // Drop the glyphs of the previous lines
+                    System.arraycopy(x, offset, x, 0, filled - offset + 1);
+                    filled -= offset;
+                    base   += offset;
+                } else {
+                    x = Arrays.copyOf(x, x.length * 2);
+                }
+            }
+            int    codePoint = Character.codePointAt(text, base + filled);
+            double advance   = advance(ascii, codePoint);
+            if ('\t' == codePoint) { tab = true; }
+            x[filled + 1] = x[filled] + advance;
+            if (Character.charCount(codePoint) == 2) { x[filled + 2] = x[filled + 1]; }
+            filled += Character.charCount(codePoint);
+        }
+    }
+
+    /**
+     * Lets a BreakIterator work on a range of a CharSequence without copying
+     * it into a String.
+     */
+    private static final class CharSequenceIterator implements CharacterIterator {
+        private final CharSequence text;
+        private final int          begin;
+        private final int          end;
+        private       int          index;
+
+
+        private CharSequenceIterator(final CharSequence text, final int begin, final int end) {
+            this.text  = text;
+            this.begin = begin;
+            this.end   = end;
+            this.index = begin;
+        }
+
+
+        @Override public char first() { index = begin; return current(); }
+
+        @Override public char last() {
+            index = end > begin ? end - 1 : end;
+            return current();
+        }
+
+        @Override public char current() { return index >= begin && index < end ? text.charAt(index) : DONE; }
+
+        @Override public char next() {
+            if (index < end) { index++; }
+            return current();
+        }
+
+        @Override public char previous() {
+            if (index <= begin) { return DONE; }
+            index--;
+            return current();
+        }
+
+        @Override public char setIndex(final int position) {
+            if (position < begin || position > end) { throw new IllegalArgumentException("Invalid index " + position); }
+            index = position;
+            return current();
+        }
+
+        @Override public int getBeginIndex() { return begin; }
+
+        @Override public int getEndIndex() { return end; }
+
+        @Override public int getIndex() { return index; }
+
+        @Override public Object clone() {
+            CharSequenceIterator clone = new CharSequenceIterator(text, begin, end);
+            clone.index = index;
+            return clone;
+        }
+    }
+}
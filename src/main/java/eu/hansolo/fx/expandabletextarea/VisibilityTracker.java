@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.value.ObservableValue;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.stage.Window;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Tracks if a node is hidden, which is the case if the node or one of its
+ * parents is invisible (e.g. the content of an unselected Tab or of a
+ * collapsed TitledPane) or if its window is not showing. A node that is not
+ * part of a window is not hidden, so it can still be measured for a
+ * snapshot or for printing.
+ * Work that was deferred while the node was hidden will be scheduled again
+ * when it becomes visible. Only while work is deferred the tracker listens
+ * to the visibility of the parents and to the window.
+ */
+final class VisibilityTracker {
+    private final Node                     node;
+    private final Set<PulseScheduler>      deferred;
+    private final List<ObservableValue<?>> observed;
+    private final InvalidationListener     listener;
+
+
+    // ******************** Constructors **************************************
+    VisibilityTracker(final Node node) {
+        this.node     = node;
+        this.deferred = new LinkedHashSet<>();
+        this.observed = new ArrayList<>();
+        this.listener = o -> check();
+    }
+
+
+    // ******************** Methods *******************************************
+    boolean isHidden() {
+        for (Node n = node ; null != n ; n = n.getParent()) {
+            if (!n.isVisible()) { return true; }
+        }
+        Scene  scene  = node.getScene();
+        Window window = null == scene ? null : scene.getWindow();
+        return null != window && !window.isShowing();
+    }
+
+    /**
+     * Returns true if the node is hidden, in this case the given scheduler
+     * will be scheduled again as soon as the node becomes visible.
+     */
+    boolean defer(final PulseScheduler scheduler) {
+        if (!isHidden()) { return false; }
+        deferred.add(scheduler);
+        if (observed.isEmpty()) { observe(); }
+        return true;
+    }
+
+
+    // ******************** Private Methods ***********************************
+    private void check() {
+        unobserve();
+        if (isHidden()) {
+            observe();
+            return;
+        }
+        List<PulseScheduler> schedulers = new ArrayList<>(deferred);
+        deferred.clear();
+        schedulers.forEach(PulseScheduler::schedule);
+    }
+
+    private void observe() {
+        for (Node n = node ; null != n ; n = n.getParent()) {
+            add(n.visibleProperty());
+            add(n.parentProperty());
+        }
+        add(node.sceneProperty());
+        Scene scene = node.getScene();
+        if (null == scene) { return; }
+        add(scene.windowProperty());
+        if (null != scene.getWindow()) { add(scene.getWindow().showingProperty()); }
+    }
+
+    private void add(final ObservableValue<?> observable) {
+        observable.addListener(listener);
+        // Invalidation events are only fired by valid observables
+        observable.getValue();
+        observed.add(observable);
+    }
+
+    private void unobserve() {
+        observed.forEach(observable -> observable.removeListener(listener));
+        observed.clear();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.application.Platform;
+import javafx.scene.layout.StackPane;
+import javafx.stage.Stage;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Appends text from a background thread and checks the text of the
+ * control after the next pulse has added it to the TextArea.
+ */
+class AppendTest {
+    private static final int MAX_NO_OF_LINES = 5;
+
+
+    @BeforeAll static void startPlatform() throws Exception { FxTestSupport.startPlatform(); }
+
+
+    @Test void appendedLinesAreTrimmedToMaxNoOfLines() throws Exception {
+        StringBuilder expected = new StringBuilder("old1\nold2");
+        assertAppended(control -> {
+            for (int i = 0 ; i < 10_000 ; i++) {
+                control.appendLine("L" + i);
+                expected.append('\n').append("L").append(i);
+            }
+        }, expected);
+    }
+
+    @Test void appendedTextIsTrimmedToMaxNoOfLines() throws Exception {
+        StringBuilder expected = new StringBuilder("old1\nold2");
+        assertAppended(control -> {
+            for (int i = 0 ; i < 10_000 ; i++) {
+                // Lines that are split over several calls
+                String text = i % 3 == 0 ? "L" + i + "\nx" : "L" + i;
+                control.append(text);
+                expected.append(text);
+            }
+        }, expected);
+    }
+
+    @Test void fewerLinesThanMaxNoOfLinesAreKept() throws Exception {
+        StringBuilder expected = new StringBuilder("old1\nold2");
+        assertAppended(control -> {
+            control.appendLine("a");
+            control.append("b\nc");
+            expected.append("\na").append("b\nc");
+        }, expected);
+    }
+
+    @Test void publisherErrorIsPassedToTheHandler() throws Exception {
+        ExpandableTextArea           control  = FxTestSupport.fx(() -> new ExpandableTextArea("", true, false, 2, Integer.MAX_VALUE, -1));
+        Stage                        stage    = FxTestSupport.fx(() -> FxTestSupport.show(new StackPane(control), 300, 300));
+        CompletableFuture<Throwable> error    = new CompletableFuture<>();
+        CompletableFuture<Boolean>   fxThread = new CompletableFuture<>();
+        RuntimeException             failure  = new RuntimeException("Publisher failed");
+        try {
+            Flow.Subscriber<CharSequence> subscriber = control.lineSubscriber(throwable -> {
+                fxThread.complete(Platform.isFxApplicationThread());
+                error.complete(throwable);
+            });
+            // Signals a publisher would send from its own thread
+            Thread publisher = new Thread(() -> {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override public void request(final long n) { }
+                    @Override public void cancel() { }
+                });
+                subscriber.onNext("first");
+                subscriber.onNext("second");
+                subscriber.onError(failure);
+            });
+            publisher.start();
+            publisher.join();
+
+            assertSame(failure, error.get(30, TimeUnit.SECONDS), "error");
+            assertTrue(fxThread.get(), "handler runs on the FX application thread");
+            FxTestSupport.waitForPulse(stage.getScene());
+            assertEquals("first\nsecond", FxTestSupport.fx(control::getText), "lines received before the error");
+        } finally {
+            FxTestSupport.fx(() -> { stage.close(); return null; });
+        }
+    }
+
+
+    /**
+     * Appends text to a control with MAX_NO_OF_LINES that is not showing
+     * yet, so all of it stays in the append buffer, then shows the control
+     * and compares its text with the last lines of the expected text.
+     */
+    private static void assertAppended(final Consumer<ExpandableTextArea> appender, final CharSequence expected) throws Exception {
+        ExpandableTextArea control = FxTestSupport.fx(() -> {
+            ExpandableTextArea textArea = new ExpandableTextArea("old1\nold2", true, false, 2, Integer.MAX_VALUE, -1);
+            textArea.setMaxNoOfLines(MAX_NO_OF_LINES);
+            return textArea;
+        });
+        appender.accept(control);
+        Stage stage = FxTestSupport.fx(() -> FxTestSupport.show(new StackPane(control), 300, 300));
+        try {
+            FxTestSupport.waitForPulse(stage.getScene());
+            assertEquals(getLastLines(expected.toString(), MAX_NO_OF_LINES), FxTestSupport.fx(control::getText), "text");
+        } finally {
+            FxTestSupport.fx(() -> { stage.close(); return null; });
+        }
+    }
+
+    private static String getLastLines(final String text, final int noOfLines) {
+        String[] lines = text.split("\n", -1);
+        return String.join("\n", Arrays.asList(lines).subList(Math.max(0, lines.length - noOfLines), lines.length));
+    }
+}
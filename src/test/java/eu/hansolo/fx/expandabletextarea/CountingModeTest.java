@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Compares the delta a CountingMode computes from the window around a
+ * change with the difference of counting the whole text before and after
+ * the change.
+ */
+class CountingModeTest {
+    // A base char with 20 combining marks is one cluster of 21 chars
+    private static final String   LONG_CLUSTER = "e" + "\u0301".repeat(20);
+    private static final String   FAMILY       = "\ud83d\udc68\u200d\ud83d\udc69\u200d\ud83d\udc67";
+    private static final String[] PIECES       = { "a", " ", "\n", "\u00e9", "e\u0301", "\u4e2d", "\ud83d\ude00", "\ud83d\udc4d\ud83c\udffd", "\ud83c\udde9\ud83c\uddea", FAMILY, "\u200d", "\ud83d", "\ude00", "\u0301", "\t" };
+
+
+    @Test void windowCoversClusterLongerThanTheContext() {
+        String text  = "a" + LONG_CLUSTER + "b";
+        int    start = text.length() - 1;
+        int[]  range = CountingMode.GRAPHEME_CLUSTERS.getWindow(start, start, text.length(), text::substring);
+        assertTrue(range[0] <= 1, "window starts at the cluster before the change but was " + range[0]);
+        assertEquals(text.length(), range[1], "window end");
+    }
+
+    @Test void deltaOfClusterLongerThanTheContext() {
+        String text = "a" + LONG_CLUSTER + "b";
+        // Removing the base lets the marks join the cluster in front of it
+        assertDelta(CountingMode.GRAPHEME_CLUSTERS, text, 1, 2, "");
+        // A mark at the end joins the long cluster
+        assertDelta(CountingMode.GRAPHEME_CLUSTERS, text, text.length() - 1, text.length() - 1, "\u0301");
+        // A base in front of the last mark splits the long cluster
+        assertDelta(CountingMode.GRAPHEME_CLUSTERS, text, text.length() - 2, text.length() - 2, "x");
+        // An emoji after a ZWJ that ends a long sequence
+        String sequence = "a\ud83d\udc4d" + "\ud83c\udffd".repeat(10) + "\u200d";
+        assertDelta(CountingMode.GRAPHEME_CLUSTERS, sequence, sequence.length(), sequence.length(), "\ud83d\ude00");
+    }
+
+
+    @Test void surrogatePairsAreCountedOnce() {
+        String text = "a\ud83d\ude00b";
+        assertEquals(4, CountingMode.UTF_16.count(text), "UTF-16");
+        assertEquals(3, CountingMode.CODE_POINTS.count(text), "code points");
+        assertEquals(3, CountingMode.GRAPHEME_CLUSTERS.count(text), "grapheme clusters");
+        assertEquals(6, CountingMode.UTF_8_BYTES.count(text), "UTF-8 bytes");
+        for (CountingMode mode : CountingMode.values()) {
+            // Completing a lone high surrogate, splitting a pair and removing half of it
+            assertDelta(mode, "a\ud83d", 2, 2, "\ude00");
+            assertDelta(mode, text, 2, 2, "x");
+            assertDelta(mode, text, 1, 2, "");
+            assertDelta(mode, text, 2, 3, "");
+        }
+    }
+
+    @Test void zwjSequencesAreJoinedAndSplit() {
+        for (CountingMode mode : CountingMode.values()) {
+            assertDelta(mode, "a", 1, 1, FAMILY);
+            assertDelta(mode, "a" + FAMILY + "b", 1, 1 + FAMILY.length(), "");
+            // Removing a ZWJ splits the sequence, inserting one joins two emoji
+            assertDelta(mode, FAMILY, 2, 3, "");
+            assertDelta(mode, "\ud83d\udc68\ud83d\udc69", 2, 2, "\u200d");
+        }
+    }
+
+    @Test void utf8BytesMatchTheEncoder() {
+        for (String piece : PIECES) {
+            assertEquals(piece.getBytes(StandardCharsets.UTF_8).length, CountingMode.UTF_8_BYTES.count(piece), "bytes of \"" + piece + "\"");
+        }
+        assertDelta(CountingMode.UTF_8_BYTES, "a\u00e9\u20ac", 1, 2, "\ud83d\ude00");
+        assertDelta(CountingMode.UTF_8_BYTES, "a\u00e9\u20ac", 0, 3, "");
+    }
+
+    @Test void deltaOfRandomEditsMatchesACount() {
+        Random random = new Random(7);
+        for (CountingMode mode : CountingMode.values()) {
+            String text = "";
+            for (int i = 0 ; i < 3000 ; i++) {
+                StringBuilder replacement = new StringBuilder();
+                for (int j = random.nextInt(4) ; j > 0 ; j--) { replacement.append(PIECES[random.nextInt(PIECES.length)]); }
+                int start = random.nextInt(text.length() + 1);
+                int end   = Math.min(text.length(), start + random.nextInt(4));
+                assertDelta(mode, text, start, end, replacement.toString());
+                text = text.substring(0, start) + replacement + text.substring(end);
+            }
+        }
+    }
+
+
+    private static void assertDelta(final CountingMode mode, final String text, final int start, final int end, final String replacement) {
+        String newText = text.substring(0, start) + replacement + text.substring(end);
+        int[]  range   = mode.getWindow(start, end, text.length(), text::substring);
+        String window  = text.substring(range[0], range[1]);
+        int    delta   = mode.delta(window, start - range[0], end - range[0], replacement);
+        assertEquals(mode.count(newText) - mode.count(text), delta, mode + " delta of replacing [" + start + ", " + end + ") with \"" + replacement + "\"");
+    }
+}
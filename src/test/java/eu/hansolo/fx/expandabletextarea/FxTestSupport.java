@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.application.Platform;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * Helpers shared by the tests. The toolkit is started headless via Monocle
+ * (see the test task in build.gradle), controls are shown in a real Stage so
+ * that CSS and layout are applied like in an application.
+ */
+final class FxTestSupport {
+    private static final AtomicBoolean STARTED = new AtomicBoolean(false);
+
+
+    private FxTestSupport() {}
+
+
+    static void startPlatform() throws Exception {
+        if (!STARTED.compareAndSet(false, true)) { return; }
+        CompletableFuture<Void> started = new CompletableFuture<>();
+        Platform.startup(() -> started.complete(null));
+        started.get(10, TimeUnit.SECONDS);
+        Platform.setImplicitExit(false);
+    }
+
+    /**
+     * Runs the given task on the FX application thread and returns its result.
+     */
+    static <T> T fx(final Callable<T> task) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return result.get(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Shows the given root in a Stage of the given size and runs CSS and
+     * layout until the pending height updates are applied.
+     */
+    static Stage show(final Parent root, final double width, final double height) {
+        Stage stage = new Stage();
+        stage.setScene(new Scene(root, width, height));
+        stage.show();
+        layout(root);
+        return stage;
+    }
+
+    /**
+     * Waits until the given scene has run a pulse, so the tasks that were
+     * scheduled for the next pulse have been executed.
+     */
+    static void waitForPulse(final Scene scene) throws Exception {
+        CompletableFuture<Void> pulse = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            Runnable listener = new Runnable() {
+                @Override public void run() {
+                    scene.removePostLayoutPulseListener(this);
+                    pulse.complete(null);
+                }
+            };
+            scene.addPostLayoutPulseListener(listener);
+            Platform.requestNextPulse();
+        });
+        pulse.get(30, TimeUnit.SECONDS);
+    }
+
+    static void layout(final Parent root) {
+        // The first pass measures the TextArea, the second one applies the resulting height
+        for (int i = 0 ; i < 3 ; i++) {
+            root.applyCss();
+            root.layout();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.scene.text.Font;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+
+/**
+ * Checks which lookups of a HeightCache hit an entry and which entries are
+ * evicted first.
+ */
+class HeightCacheTest {
+    private static final int[] LENGTHS = { 3, 0, 7 };
+    private static final int[] LINES   = { 1, 1, 2 };
+
+
+    @BeforeAll static void startPlatform() throws Exception { FxTestSupport.startPlatform(); }
+
+
+    @Test void leastRecentlyUsedEntryIsEvicted() {
+        Font        font  = Font.getDefault();
+        HeightCache cache = new HeightCache(2, 1);
+        cache.put(1, 1, LENGTHS, font, 100, new int[] { 1, 1, 1 });
+        cache.put(2, 2, LENGTHS, font, 100, new int[] { 2, 2, 2 });
+        // Using the first entry makes the second one the oldest
+        cache.get(1, 1, LENGTHS, LENGTHS.length, font, 100);
+        cache.put(3, 3, LENGTHS, font, 100, new int[] { 3, 3, 3 });
+        assertEquals(2, cache.getSize(), "size");
+        assertEquals(1, cache.getEvictions(), "evictions");
+        assertNull(cache.get(2, 2, LENGTHS, LENGTHS.length, font, 100), "evicted entry");
+        assertArrayEquals(new int[] { 1, 1, 1 }, cache.get(1, 1, LENGTHS, LENGTHS.length, font, 100), "used entry");
+        assertArrayEquals(new int[] { 3, 3, 3 }, cache.get(3, 3, LENGTHS, LENGTHS.length, font, 100), "new entry");
+    }
+
+    @Test void collidingHashesDoNotShareAnEntry() {
+        Font        font  = Font.getDefault();
+        HeightCache cache = new HeightCache();
+        cache.put(1, 1, LENGTHS, font, 100, LINES);
+        assertNull(cache.get(1, 2, LENGTHS, LENGTHS.length, font, 100), "same first hash");
+        assertNull(cache.get(2, 1, LENGTHS, LENGTHS.length, font, 100), "same second hash");
+        assertNull(cache.get(1, 1, new int[] { 3, 7, 0 }, 3, font, 100), "same hashes, other paragraph lengths");
+        assertNull(cache.get(1, 1, new int[] { 3, 0 }, 2, font, 100), "same hashes, fewer paragraphs");
+        assertNull(cache.get(1, 1, LENGTHS, LENGTHS.length, Font.font(font.getFamily(), font.getSize() + 1), 100), "other font");
+        assertArrayEquals(LINES, cache.get(1, 1, new int[] { 3, 0, 7, 99 }, 3, font, 100), "first paragraph lengths of a larger array");
+        assertEquals(1, cache.getHits(), "hits");
+        assertEquals(5, cache.getMisses(), "misses");
+    }
+
+    @Test void widthsAreRoundedToBuckets() {
+        Font        font  = Font.getDefault();
+        HeightCache cache = new HeightCache(8, 4);
+        cache.put(1, 1, LENGTHS, font, 100, LINES);
+        assertArrayEquals(LINES, cache.get(1, 1, LENGTHS, LENGTHS.length, font, 101.9), "same bucket");
+        assertNull(cache.get(1, 1, LENGTHS, LENGTHS.length, font, 102), "next bucket");
+    }
+
+    @Test void textsWithCollidingPolynomialHashAreMeasured() {
+        Font        font  = Font.getDefault();
+        HeightCache cache = new HeightCache();
+        // "Aa" and "BB" have the same String hash and the same paragraph lengths
+        List<CharSequence> first  = Arrays.asList("Aa", "word ".repeat(30));
+        List<CharSequence> second = Arrays.asList("BB", "word ".repeat(30));
+        LineIndex          index  = new LineIndex();
+        index.rebuild(first, 2 + 1 + 150);
+        index.update(font, 100, first, cache);
+        index.getNoOfLines(first);
+        index.update(font, 50, first, cache);
+        assertEquals(1, cache.getSize(), "entries");
+
+        LineIndex other = new LineIndex();
+        other.rebuild(second, 2 + 1 + 150);
+        other.update(font, 100, second, cache);
+        assertEquals(0, cache.getHits(), "hits");
+        assertEquals(LineIndex.of(String.join("\n", second), font, 100).getNoOfLines(second), other.getNoOfLines(second), "lines");
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.geometry.Bounds;
+import javafx.geometry.Point2D;
+import javafx.scene.Node;
+import javafx.scene.control.TextArea;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.StackPane;
+import javafx.scene.text.Text;
+import javafx.stage.Stage;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * Compares the predictions of the HeightPredictor with the text that a
+ * TextArea renders in a Stage. The lines are counted with hit tests on the
+ * text node of the skin and the heights are taken from its content region.
+ */
+class HeightPredictorTest {
+    private static final double   WIDTH = 300;
+    private static final String[] TEXTS = {
+        "",
+        "Short",
+        "The process of learning the Java language can be a tough task for you",
+        "First paragraph\nSecond paragraph\n\nFourth paragraph after an empty one",
+        "The process of learning the Java language can be a tough task for you. ".repeat(20),
+        "Supercalifragilisticexpialidocious".repeat(10) + " and a few more words at the end"
+    };
+
+
+    @BeforeAll static void startPlatform() throws Exception { FxTestSupport.startPlatform(); }
+
+
+    @Test void expandedHeightMatchesLayout() throws Exception {
+        for (String text : TEXTS) {
+            FxTestSupport.fx(() -> {
+                ExpandableTextArea control = new ExpandableTextArea(text, true, false, 2, Integer.MAX_VALUE, -1);
+                Stage              stage   = FxTestSupport.show(new StackPane(control), WIDTH, 2000);
+                try {
+                    TextArea                   textArea   = control.getTextArea();
+                    HeightPredictor.Prediction prediction = HeightPredictor.predict(createRequest(text, textArea));
+                    Text                       textNode   = getTextNode(textArea);
+                    assertEquals(getNoOfRenderedLines(textNode), prediction.getExpandedNoOfLines(), "lines of \"" + text + "\"");
+                    assertEquals(getRenderedTextHeight(textArea), prediction.getExpandedHeight(), 0.5, "expanded height of \"" + text + "\"");
+                } finally {
+                    stage.close();
+                }
+                return null;
+            });
+        }
+    }
+
+    @Test void fixedHeightMatchesLayout() throws Exception {
+        for (int compactNoOfLines = 1 ; compactNoOfLines <= 4 ; compactNoOfLines++) {
+            int noOfLines = compactNoOfLines;
+            FxTestSupport.fx(() -> {
+                ExpandableTextArea control = new ExpandableTextArea(TEXTS[4], false, true, noOfLines, Integer.MAX_VALUE, -1);
+                Stage              stage   = FxTestSupport.show(new StackPane(control), WIDTH, 2000);
+                try {
+                    TextArea                   textArea   = control.getTextArea();
+                    HeightPredictor.Prediction prediction = HeightPredictor.predict(createRequest(TEXTS[4], textArea, noOfLines));
+                    // The height of the first lines of the rendered text
+                    double lineHeight = getRenderedTextHeight(textArea) / getNoOfRenderedLines(getTextNode(textArea));
+                    assertEquals(noOfLines * lineHeight, prediction.getFixedHeight(), 0.5, "fixed height of " + noOfLines + " lines");
+                } finally {
+                    stage.close();
+                }
+                return null;
+            });
+        }
+    }
+
+
+    private static HeightPredictor.Request createRequest(final String text, final TextArea textArea) { return createRequest(text, textArea, 2); }
+    private static HeightPredictor.Request createRequest(final String text, final TextArea textArea, final int compactNoOfLines) {
+        return new HeightPredictor.Request(text, textArea.getFont(), textArea.getWidth(), textArea.getInsets(), compactNoOfLines, 1, Integer.MAX_VALUE);
+    }
+
+    private static Text getTextNode(final TextArea textArea) {
+        for (Node node : textArea.lookupAll(".text")) {
+            if (node instanceof Text && textArea.getText().equals(((Text) node).getText())) { return (Text) node; }
+        }
+        throw new IllegalStateException("No text node found in " + textArea);
+    }
+
+    /**
+     * Hit tests every pixel row of the text node at its left edge, every
+     * line yields the index of its first character.
+     */
+    private static int getNoOfRenderedLines(final Text textNode) {
+        Bounds       bounds     = textNode.getLayoutBounds();
+        Set<Integer> lineStarts = new HashSet<>();
+        for (double y = bounds.getMinY() + 0.5 ; y < bounds.getMaxY() ; y++) {
+            lineStarts.add(textNode.hitTest(new Point2D(0, y)).getInsertionIndex());
+        }
+        return lineStarts.size();
+    }
+
+    private static double getRenderedTextHeight(final TextArea textArea) {
+        Region content = (Region) textArea.lookup(".content");
+        return content.getHeight() - content.snappedTopInset() - content.snappedBottomInset();
+    }
+}
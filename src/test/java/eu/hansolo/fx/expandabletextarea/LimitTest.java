@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.scene.control.TextArea;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * Checks that the TextFormatter filter limits the text to
+ * maxNoOfCharacters - 1 characters by trimming the inserted text and that
+ * the caret and anchor stay inside the inserted text.
+ */
+class LimitTest {
+
+    @BeforeAll static void startPlatform() throws Exception { FxTestSupport.startPlatform(); }
+
+
+    @Test void pasteOverTheLimitIsTrimmed() throws Exception {
+        FxTestSupport.fx(() -> {
+            TextArea textArea = createTextArea("abc", 10, CountingMode.UTF_16);
+            textArea.positionCaret(1);
+            textArea.replaceSelection("0123456789");
+            assertEquals("a012345bc", textArea.getText(), "text");
+            assertEquals(7, textArea.getCaretPosition(), "caret");
+            assertEquals(7, textArea.getAnchor(), "anchor");
+            return null;
+        });
+    }
+
+    @Test void selectionIsClampedToTheTrimmedText() throws Exception {
+        FxTestSupport.fx(() -> {
+            TextArea textArea = createTextArea("abcdefgh", 10, CountingMode.UTF_16);
+            textArea.selectRange(2, 4);
+            textArea.replaceSelection("0123456789");
+            // 6 chars remain outside the selection, so 3 of the pasted ones fit
+            assertEquals("ab012efgh", textArea.getText(), "text");
+            assertEquals(5, textArea.getCaretPosition(), "caret");
+            assertEquals(5, textArea.getAnchor(), "anchor");
+            return null;
+        });
+    }
+
+    @Test void changeWithinTheLimitIsKept() throws Exception {
+        FxTestSupport.fx(() -> {
+            TextArea textArea = createTextArea("abc", 10, CountingMode.UTF_16);
+            textArea.selectRange(0, 3);
+            textArea.replaceSelection("012345678");
+            assertEquals("012345678", textArea.getText(), "text");
+            textArea.appendText("9");
+            assertEquals("012345678", textArea.getText(), "text at the limit");
+            return null;
+        });
+    }
+
+    @Test void surrogatePairIsNotSplit() throws Exception {
+        FxTestSupport.fx(() -> {
+            TextArea textArea = createTextArea("abcdefg", 10, CountingMode.UTF_16);
+            textArea.appendText("\ud83d\ude00\ud83d\ude00");
+            assertEquals("abcdefg\ud83d\ude00", textArea.getText(), "text");
+            textArea.positionCaret(0);
+            textArea.replaceSelection("\ud83d\ude00");
+            // Only one char is left which would split the pair
+            assertEquals("abcdefg\ud83d\ude00", textArea.getText(), "text at the limit");
+            return null;
+        });
+    }
+
+    @Test void pasteOverTheLimitIsTrimmedInCodePoints() throws Exception {
+        FxTestSupport.fx(() -> {
+            ExpandableTextArea control  = createControl("ab", 6, CountingMode.CODE_POINTS);
+            TextArea           textArea = control.getTextArea();
+            textArea.positionCaret(1);
+            textArea.replaceSelection("\ud83d\ude00\ud83d\ude00\ud83d\ude00\ud83d\ude00");
+            assertEquals("a\ud83d\ude00\ud83d\ude00\ud83d\ude00b", textArea.getText(), "text");
+            assertEquals(7, textArea.getCaretPosition(), "caret");
+            assertEquals(7, textArea.getAnchor(), "anchor");
+            assertEquals(5, control.getNoOfCharacters(), "count");
+            return null;
+        });
+    }
+
+    @Test void pasteOverTheLimitIsTrimmedInGraphemeClusters() throws Exception {
+        FxTestSupport.fx(() -> {
+            // Each e with a combining acute accent is one cluster of two chars
+            String             accents  = "e\u0301e\u0301e\u0301";
+            ExpandableTextArea control  = createControl("ab", 5, CountingMode.GRAPHEME_CLUSTERS);
+            TextArea           textArea = control.getTextArea();
+            textArea.selectRange(2, 2);
+            textArea.replaceSelection(accents);
+            assertEquals("abe\u0301e\u0301", textArea.getText(), "text");
+            assertEquals(6, textArea.getCaretPosition(), "caret");
+            assertEquals(4, control.getNoOfCharacters(), "count");
+            return null;
+        });
+    }
+
+    @Test void pasteOverTheLimitIsTrimmedInUtf8Bytes() throws Exception {
+        FxTestSupport.fx(() -> {
+            ExpandableTextArea control  = createControl("a", 8, CountingMode.UTF_8_BYTES);
+            TextArea           textArea = control.getTextArea();
+            textArea.appendText("\u00e9\u20ac\ud83d\ude00");
+            // 1 + 2 + 3 bytes fit into 7, the 4 bytes of the emoji don't
+            assertEquals("a\u00e9\u20ac", textArea.getText(), "text");
+            assertEquals(6, control.getNoOfCharacters(), "count");
+            return null;
+        });
+    }
+
+
+    private static TextArea createTextArea(final String text, final int maxNoOfCharacters, final CountingMode countingMode) {
+        return createControl(text, maxNoOfCharacters, countingMode).getTextArea();
+    }
+
+    private static ExpandableTextArea createControl(final String text, final int maxNoOfCharacters, final CountingMode countingMode) {
+        ExpandableTextArea control = new ExpandableTextArea(text, false, false, 2, maxNoOfCharacters, -1);
+        control.setCountingMode(countingMode);
+        return control;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.scene.text.Font;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * Applies random edits to a LineIndex like the TextFormatter filter and the
+ * text listener of the ExpandableTextArea do and compares the result with
+ * an index that is built from scratch for the same text.
+ */
+class LineIndexTest {
+    private static final double   WIDTH      = 120;
+    private static final String[] INSERTIONS = { "a", "abc def ", "\n", "x\ny", "\n\n", "", "lorem ipsum dolor sit amet consectetur\n", "word ".repeat(12) };
+
+
+    @BeforeAll static void startPlatform() throws Exception { FxTestSupport.startPlatform(); }
+
+
+    @Test void incrementalEditsMatchRebuild() {
+        Random    random = new Random(42);
+        Font      font   = Font.getDefault();
+        String    text   = "hello\nworld";
+        LineIndex index  = LineIndex.of(text, font, WIDTH);
+        for (int i = 0 ; i < 5000 ; i++) {
+            int    start     = random.nextInt(text.length() + 1);
+            int    end       = Math.min(text.length(), start + (random.nextInt(3) == 0 ? random.nextInt(30) : 0));
+            String insertion = INSERTIONS[random.nextInt(INSERTIONS.length)];
+            text = text.substring(0, start) + insertion + text.substring(end);
+
+            index.edit(start, end, insertion.length());
+            index.sync(getParagraphs(text), text.length());
+            // Only measure from time to time, so several edits pile up in the dirty range
+            if (i % 3 != 0) { continue; }
+
+            LineIndex reference = LineIndex.of(text, font, WIDTH);
+            String    message   = "after edit " + i + " (" + start + ", " + end + ", \"" + insertion + "\")";
+            assertEquals(reference.getNoOfParagraphs(), index.getNoOfParagraphs(), message);
+            assertEquals(reference.getLength(), index.getLength(), message);
+            assertEquals(reference.getNoOfLines(getParagraphs(text)), index.getNoOfLines(getParagraphs(text)), message);
+        }
+    }
+
+    @Test void syncWithoutEditRebuilds() {
+        Font      font  = Font.getDefault();
+        LineIndex index = LineIndex.of("one\ntwo", font, WIDTH);
+        // Undo, redo and bound text properties change the text without passing the filter
+        String text = "a\nb\nc\n" + "word ".repeat(40);
+        index.sync(getParagraphs(text), text.length());
+        assertEquals(4, index.getNoOfParagraphs(), "paragraphs");
+        assertEquals(LineIndex.of(text, font, WIDTH).getNoOfLines(getParagraphs(text)), index.getNoOfLines(getParagraphs(text)), "lines");
+    }
+
+    @Test void editOutsideTheTextRebuilds() {
+        Font      font  = Font.getDefault();
+        LineIndex index = LineIndex.of("one\ntwo", font, WIDTH);
+        // The recorded edit ends behind the text the index knows about
+        index.edit(5, 20, 0);
+        String text = "x\ny\nz";
+        index.sync(getParagraphs(text), text.length());
+        assertEquals(3, index.getNoOfParagraphs(), "paragraphs");
+        assertEquals(3, index.getNoOfLines(getParagraphs(text)), "lines");
+    }
+
+    @Test void emptyText() {
+        LineIndex index = LineIndex.of("", Font.getDefault(), WIDTH);
+        assertEquals(1, index.getNoOfParagraphs(), "paragraphs");
+        assertEquals(1, index.getNoOfLines(getParagraphs("")), "lines");
+    }
+
+
+    private static List<CharSequence> getParagraphs(final String text) {
+        List<CharSequence> paragraphs = new ArrayList<>();
+        int start = 0;
+        for (int i = 0 ; i <= text.length() ; i++) {
+            if (i < text.length() && '\n' != text.charAt(i)) { continue; }
+            paragraphs.add(text.substring(start, i));
+            start = i + 1;
+        }
+        return paragraphs;
+    }
+}
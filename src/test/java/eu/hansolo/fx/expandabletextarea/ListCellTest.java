@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.collections.FXCollections;
+import javafx.scene.Node;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.TextArea;
+import javafx.scene.layout.StackPane;
+import javafx.stage.Stage;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Edits the text of an ExpandableTextAreaListCell and checks that the cell
+ * follows the height of the edited text before the edit is committed.
+ */
+class ListCellTest {
+
+    @BeforeAll static void startPlatform() throws Exception { FxTestSupport.startPlatform(); }
+
+
+    @Test void focusedCellFollowsTheEditedText() throws Exception {
+        ExpandableTextAreaListView listView = FxTestSupport.fx(() -> {
+            ExpandableTextAreaListView view = new ExpandableTextAreaListView(FXCollections.observableArrayList("first", "second", "third"));
+            view.setExpandable(true);
+            return view;
+        });
+        Stage stage = FxTestSupport.fx(() -> FxTestSupport.show(new StackPane(listView), 300, 600));
+        try {
+            ListCell<?> cell   = FxTestSupport.fx(() -> getCell(listView, 0));
+            double      height = FxTestSupport.fx(cell::getHeight);
+            FxTestSupport.fx(() -> {
+                TextArea textArea = ((ExpandableTextArea) cell.getGraphic()).getTextArea();
+                textArea.requestFocus();
+                textArea.appendText("\nline\nline\nline\nline");
+                return null;
+            });
+            FxTestSupport.waitForPulse(stage.getScene());
+            assertTrue(FxTestSupport.fx(cell::getHeight) > height, "height of the edited cell");
+            assertEquals("first", FxTestSupport.fx(() -> listView.getItems().get(0)), "item before the commit");
+
+            // Moving the focus commits the edit
+            FxTestSupport.fx(() -> { listView.requestFocus(); return null; });
+            assertEquals("first\nline\nline\nline\nline", FxTestSupport.fx(() -> listView.getItems().get(0)), "item after the commit");
+        } finally {
+            FxTestSupport.fx(() -> { stage.close(); return null; });
+        }
+    }
+
+
+    private static ListCell<?> getCell(final ExpandableTextAreaListView listView, final int index) {
+        for (Node node : listView.lookupAll(".expandable-text-area-list-cell")) {
+            ListCell<?> cell = (ListCell<?>) node;
+            if (cell.getIndex() == index && !cell.isEmpty()) { return cell; }
+        }
+        throw new IllegalStateException("No cell for index " + index);
+    }
+}
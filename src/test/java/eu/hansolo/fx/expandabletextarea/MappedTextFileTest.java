@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Writes files to a temporary directory and reads windows of their lines
+ * from a MappedTextFile after it has been indexed.
+ */
+class MappedTextFileTest {
+
+    @Test void windowsMatchTheLinesOfTheFile() throws Exception {
+        // More lines than fit into one chunk of line starts
+        List<String> lines = new ArrayList<>();
+        for (int i = 0 ; i < 150_000 ; i++) { lines.add("line " + i + " \u00e4\u00f6\u00fc " + "x".repeat(i % 40)); }
+        Path path = write(String.join("\n", lines));
+        MappedTextFile file = open(path);
+        try {
+            assertEquals(lines.size(), file.getNoOfLines(), "lines");
+            assertEquals(String.join("\n", lines.subList(0, 100)), file.getLines(0, 100), "first window");
+            assertEquals(String.join("\n", lines.subList(65_530, 65_540)), file.getLines(65_530, 65_540), "window across chunks");
+            assertEquals(lines.get(lines.size() - 1), file.getLines(lines.size() - 1, lines.size()), "last line");
+            assertEquals("", file.getLines(10, 10), "empty window");
+        } finally {
+            file.close();
+            Files.delete(path);
+        }
+    }
+
+    @Test void lineBreaksAreOnlySplitAtLineFeeds() throws Exception {
+        Path path = write("a\r\nb\n\nc\rd\n");
+        MappedTextFile file = open(path);
+        try {
+            // The '\r' stays part of the line, a trailing '\n' starts an empty last line
+            assertEquals(5, file.getNoOfLines(), "lines");
+            assertEquals("a\r\nb\n\nc\rd", file.getLines(0, 4), "lines without the last one");
+            assertEquals("", file.getLines(4, 5), "empty last line");
+        } finally {
+            file.close();
+            Files.delete(path);
+        }
+    }
+
+    @Test void emptyFileHasOneEmptyLine() throws Exception {
+        Path path = write("");
+        MappedTextFile file = open(path);
+        try {
+            assertEquals(1, file.getNoOfLines(), "lines");
+            assertEquals("", file.getLines(0, 1), "line");
+        } finally {
+            file.close();
+            Files.delete(path);
+        }
+    }
+
+    @Test void longLinesAreCut() throws Exception {
+        String longLine = "y".repeat(MappedTextFile.MAX_LINE_BYTES + 100);
+        Path   path     = write("first\n" + longLine + "\nlast");
+        MappedTextFile file = open(path);
+        try {
+            assertEquals(3, file.getNoOfLines(), "lines");
+            assertEquals("first\n" + longLine.substring(0, MappedTextFile.MAX_LINE_BYTES) + "\nlast", file.getLines(0, 3), "lines");
+        } finally {
+            file.close();
+            Files.delete(path);
+        }
+    }
+
+    @Test void windowOutsideTheFileIsRejected() throws Exception {
+        Path path = write("a\nb\nc");
+        MappedTextFile file = open(path);
+        try {
+            assertThrows(IndexOutOfBoundsException.class, () -> file.getLines(-1, 1));
+            assertThrows(IndexOutOfBoundsException.class, () -> file.getLines(2, 4));
+            assertThrows(IndexOutOfBoundsException.class, () -> file.getLines(2, 1));
+        } finally {
+            file.close();
+            Files.delete(path);
+        }
+    }
+
+    @Test void closedFileCanNotBeRead() throws Exception {
+        Path path = write("a\nb");
+        MappedTextFile file = open(path);
+        file.close();
+        try {
+            assertThrows(IllegalStateException.class, () -> file.getLines(0, 1));
+            assertTrue(file.indexed().isDone(), "indexed future is done");
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test void charsetWithoutSingleByteLineFeedIsRejected() throws Exception {
+        Path path = write("a\nb");
+        try {
+            assertThrows(IllegalArgumentException.class, () -> MappedTextFile.open(path, StandardCharsets.UTF_16, null));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+
+    private static Path write(final String text) throws Exception {
+        Path path = Files.createTempFile("mapped-text-file", ".txt");
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static MappedTextFile open(final Path path) throws Exception {
+        MappedTextFile file = MappedTextFile.open(path, StandardCharsets.UTF_8, null);
+        file.indexed().get(30, TimeUnit.SECONDS);
+        return file;
+    }
+}
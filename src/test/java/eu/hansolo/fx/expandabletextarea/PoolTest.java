@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+import javafx.scene.layout.StackPane;
+import javafx.stage.Stage;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+/**
+ * Releases controls to an ExpandableTextAreaPool and checks that nothing
+ * of their previous use is left when they are acquired again.
+ */
+class PoolTest {
+
+    @BeforeAll static void startPlatform() throws Exception { FxTestSupport.startPlatform(); }
+
+
+    @Test void releasedControlKeepsNoText() throws Exception {
+        FxTestSupport.fx(() -> {
+            ExpandableTextAreaPool pool    = new ExpandableTextAreaPool(2);
+            ExpandableTextArea     control = pool.acquire("word ".repeat(10_000), 2);
+            control.getTextArea().appendText(" more");
+            pool.release(control);
+            assertEquals("", control.getText(), "text of the released control");
+            assertFalse(control.getTextArea().isUndoable(), "undo history of the released control");
+            return null;
+        });
+    }
+
+    @Test void acquiredControlHasTheDefaults() throws Exception {
+        FxTestSupport.fx(() -> {
+            ExpandableTextAreaPool pool    = new ExpandableTextAreaPool(2);
+            ExpandableTextArea     control = pool.acquire("hello", true, false, 3, 50, 5);
+            StringProperty         text    = new SimpleStringProperty("bound");
+            control.setMaxNoOfLines(3);
+            control.setCountingMode(CountingMode.CODE_POINTS);
+            control.setLimitationText("left");
+            control.setAnimated(true);
+            control.getTextArea().textProperty().bind(text);
+            control.getTextArea().setEditable(false);
+            pool.release(control);
+
+            ExpandableTextArea reused = pool.acquire("abc", false, false, 2, 20, 4);
+            assertSame(control, reused, "reused instance");
+            assertEquals("abc", reused.getText(), "text");
+            assertEquals(0, reused.getMaxNoOfLines(), "maxNoOfLines");
+            assertEquals(CountingMode.UTF_16, reused.getCountingMode(), "counting mode");
+            assertEquals("characters left", reused.getLimitationText(), "limitation text");
+            assertFalse(reused.isAnimated(), "animated");
+            assertFalse(reused.getTextArea().textProperty().isBound(), "text is bound");
+            assertTrue(reused.getTextArea().isEditable(), "editable");
+            assertEquals(20, reused.getMaxNoOfCharacters(), "maxNoOfCharacters");
+            assertFalse(reused.isExpandable(), "expandable");
+            // The old binding must not reach the reused control
+            text.set("stale");
+            assertEquals("abc", reused.getText(), "text after the old binding changed");
+            return null;
+        });
+    }
+
+    @Test void pendingTextIsDropped() throws Exception {
+        ExpandableTextAreaPool  pool    = new ExpandableTextAreaPool(2);
+        CompletableFuture<Void> async   = FxTestSupport.fx(() -> {
+            ExpandableTextArea control = pool.acquire("first", 2);
+            control.append("appended");
+            CompletableFuture<Void> future = control.setTextAsync("async");
+            pool.release(control);
+            return future;
+        });
+        ExpandableTextArea control = FxTestSupport.fx(() -> pool.acquire("second", 2));
+        Stage              stage   = FxTestSupport.fx(() -> FxTestSupport.show(new StackPane(control), 300, 300));
+        try {
+            async.get(30, TimeUnit.SECONDS);
+            FxTestSupport.waitForPulse(stage.getScene());
+            assertEquals("second", FxTestSupport.fx(control::getText), "text");
+        } finally {
+            FxTestSupport.fx(() -> { stage.close(); return null; });
+        }
+    }
+
+    @Test void releasedControlDoesNotKeepItsWindow() throws Exception {
+        ExpandableTextAreaPool pool    = new ExpandableTextAreaPool(2);
+        ExpandableTextArea     control = FxTestSupport.fx(() -> pool.acquire("text", 2));
+        WeakReference<Stage>   stage   = FxTestSupport.fx(() -> {
+            StackPane root  = new StackPane(control);
+            Stage     shown = FxTestSupport.show(root, 300, 300);
+            root.getChildren().clear();
+            pool.release(control);
+            shown.close();
+            return new WeakReference<>(shown);
+        });
+        // The toolkit keeps a reference to the stage that was closed last
+        FxTestSupport.fx(() -> {
+            FxTestSupport.show(new StackPane(), 100, 100).close();
+            return null;
+        });
+        for (int i = 0 ; i < 20 && null != stage.get() ; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertNull(stage.get(), "stage of the released control");
+        assertSame(control, FxTestSupport.fx(() -> pool.acquire("again", 2)), "pooled control");
+    }
+
+    @Test void controlInASceneGraphIsRejected() throws Exception {
+        FxTestSupport.fx(() -> {
+            ExpandableTextAreaPool pool    = new ExpandableTextAreaPool(2);
+            ExpandableTextArea     control = pool.acquire("text", 2);
+            new StackPane(control);
+            assertThrows(IllegalStateException.class, () -> pool.release(control));
+            return null;
+        });
+    }
+}
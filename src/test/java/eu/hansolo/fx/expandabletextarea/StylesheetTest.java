@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.geometry.Insets;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.StackPane;
+import javafx.scene.text.Font;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * Checks the values the user agent stylesheet applies to the nodes that
+ * used to be styled in code.
+ */
+class StylesheetTest {
+
+    @BeforeAll static void startPlatform() throws Exception { FxTestSupport.startPlatform(); }
+
+
+    @Test void labelPanePaddingOfExpandableTextArea() throws Exception {
+        Insets padding = FxTestSupport.fx(() -> ((Region) styled(new ExpandableTextArea("Text", false, true, 2)).lookup(".label-pane")).getPadding());
+        assertEquals(new Insets(4, 7, 7, 7), padding);
+    }
+
+    @Test void labelPanePaddingOfExpandableTextArea2() throws Exception {
+        Insets padding = FxTestSupport.fx(() -> ((Region) styled(new ExpandableTextArea2("Text", false, true, 2)).lookup(".label-pane")).getPadding());
+        assertEquals(new Insets(5, 6, 6, 9), padding);
+    }
+
+    @Test void limitationLabelFontSize() throws Exception {
+        double size = FxTestSupport.fx(() -> ((Label) styled(new ExpandableTextArea("Text", 2)).lookup(".limitation-label")).getFont().getSize());
+        assertEquals(Font.getDefault().getSize() * 0.833333, size, 0.05, "font size of the limitation label");
+    }
+
+
+    private static Parent styled(final Parent control) {
+        new Scene(new StackPane(control));
+        control.applyCss();
+        return control;
+    }
+}
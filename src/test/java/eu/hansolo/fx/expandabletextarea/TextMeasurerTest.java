@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2020 by Gerrit Grunwald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.hansolo.fx.expandabletextarea;
+
+import javafx.geometry.Bounds;
+import javafx.geometry.Point2D;
+import javafx.scene.Node;
+import javafx.scene.control.TextArea;
+import javafx.scene.layout.StackPane;
+import javafx.scene.text.Text;
+import javafx.stage.Stage;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+
+/**
+ * Compares the lines computed by the TextMeasurer with the lines of a
+ * TextArea that is shown and laid out in a Stage. The line starts of the
+ * TextArea are taken from hit tests at the start of every line.
+ */
+class TextMeasurerTest {
+    private static final double[] WIDTHS = { 80, 150, 233, 310 };
+    private static final String[] TEXTS  = {
+        "The process of learning the Java language can be a tough task for you, but it is worth it.",
+        "Words, punctuation (brackets) and \"quotes\" - dashes-in-words; numbers 1,234.56 and e-mail@example.com",
+        // CJK breaks between every ideograph except before closing punctuation
+        "\u65e5\u672c\u8a9e\u306e\u30c6\u30ad\u30b9\u30c8\u306f\u5358\u8a9e\u306e\u9593\u306b\u7a7a\u767d\u304c\u3042\u308a\u307e\u305b\u3093\u3002\u4e2d\u6587\u6587\u672c\u4e5f\u662f\u4e00\u6837\u7684\uff0c\u5bf9\u5427\uff1f",
+        "Mixed \u4e2d\u6587 and English \u65e5\u672c\u8a9e text \ud55c\uad6d\uc5b4 \ud14d\uc2a4\ud2b8 in one paragraph",
+        // Emoji outside the BMP, with skin tone modifiers and flags
+        "Emoji \ud83d\ude00\ud83d\ude03\ud83d\ude04 thumbs \ud83d\udc4d\ud83c\udffd flags \ud83c\udde9\ud83c\uddea\ud83c\uddeb\ud83c\uddf7 end",
+        "\ud83d\ude00\ud83d\ude00\ud83d\ude00\ud83d\ude00\ud83d\ude00\ud83d\ude00\ud83d\ude00\ud83d\ude00\ud83d\ude00\ud83d\ude00\ud83d\ude00\ud83d\ude00\ud83d\ude00\ud83d\ude00\ud83d\ude00\ud83d\ude00",
+        // Words that are wider than the wrapping width are broken between two characters
+        "Supercalifragilisticexpialidocious".repeat(8),
+        "Short words before a very long one " + "Pneumonoultramicroscopicsilicovolcanoconiosis".repeat(4) + " and after",
+        "https://www.example.com/a/very/long/path/without/any/spaces/that/goes/on/and/on/index.html?query=value&other=1",
+        "Trailing whitespace never wraps                                                              ",
+        // Combining marks and joiners are shaped and not compared, the measurer adds the advances of their code points
+        "Accents \u00e9\u00e8\u00ea and umlauts \u00e4\u00f6\u00fc in a longer paragraph of text with a-hyphenated-word"
+    };
+
+
+    @BeforeAll static void startPlatform() throws Exception { FxTestSupport.startPlatform(); }
+
+
+    @Test void lineStartsMatchTextArea() throws Exception {
+        for (double width : WIDTHS) {
+            for (String text : TEXTS) {
+                FxTestSupport.fx(() -> {
+                    TextArea textArea = new TextArea(text);
+                    textArea.setWrapText(true);
+                    textArea.setPrefWidth(width);
+                    textArea.setMaxWidth(width);
+                    Stage stage = FxTestSupport.show(new StackPane(textArea), width, 2000);
+                    try {
+                        Text         textNode = getTextNode(textArea, text);
+                        TextMeasurer measurer = TextMeasurer.get(textArea.getFont());
+                        int[]        expected = getLineStarts(textNode, measurer.getLineHeight());
+                        int[]        actual   = measurer.getLineStarts(text, 0, text.length(), textNode.getWrappingWidth());
+                        assertEquals(Arrays.toString(expected), Arrays.toString(actual), "line starts of \"" + text + "\" at " + textNode.getWrappingWidth());
+                        assertEquals(expected.length, measurer.getNoOfLines(text, textNode.getWrappingWidth()), "lines of \"" + text + "\" at " + textNode.getWrappingWidth());
+                    } finally {
+                        stage.close();
+                    }
+                    return null;
+                });
+            }
+        }
+    }
+
+    @Test void noOfLinesMatchesTextAreaForParagraphs() throws Exception {
+        // The TextArea decides for its whole text whether it breaks lines with a BreakIterator, the measurer per paragraph
+        assertNoOfLines(String.join("\n", Arrays.stream(TEXTS).filter(text -> !hasIdeographs(text)).toArray(String[]::new)));
+        assertNoOfLines(String.join("\n", Arrays.stream(TEXTS).filter(TextMeasurerTest::hasIdeographs).toArray(String[]::new)));
+    }
+
+
+    private static void assertNoOfLines(final String text) throws Exception {
+        for (double width : WIDTHS) {
+            FxTestSupport.fx(() -> {
+                TextArea textArea = new TextArea(text);
+                textArea.setWrapText(true);
+                textArea.setPrefWidth(width);
+                textArea.setMaxWidth(width);
+                Stage stage = FxTestSupport.show(new StackPane(textArea), width, 4000);
+                try {
+                    Text         textNode = getTextNode(textArea, text);
+                    TextMeasurer measurer = TextMeasurer.get(textArea.getFont());
+                    int          expected = (int) Math.round(textNode.getLayoutBounds().getHeight() / measurer.getLineHeight());
+                    assertEquals(expected, measurer.getNoOfLines(text, textNode.getWrappingWidth()), "lines at " + textNode.getWrappingWidth());
+                } finally {
+                    stage.close();
+                }
+                return null;
+            });
+        }
+    }
+
+    private static boolean hasIdeographs(final String text) { return text.codePoints().anyMatch(Character::isIdeographic); }
+
+    private static Text getTextNode(final TextArea textArea, final String text) {
+        for (Node node : textArea.lookupAll(".text")) {
+            if (node instanceof Text && text.equals(((Text) node).getText())) { return (Text) node; }
+        }
+        throw new IllegalStateException("No text node found in " + textArea);
+    }
+
+    private static int[] getLineStarts(final Text textNode, final double lineHeight) {
+        // The layout bounds of a Text start at the top of the first line which is above its origin
+        Bounds bounds     = textNode.getLayoutBounds();
+        int    noOfLines  = (int) Math.round(bounds.getHeight() / lineHeight);
+        int[]  lineStarts = new int[noOfLines];
+        for (int line = 0 ; line < noOfLines ; line++) {
+            lineStarts[line] = textNode.hitTest(new Point2D(0, bounds.getMinY() + (line + 0.5) * lineHeight)).getInsertionIndex();
+        }
+        return lineStarts;
+    }
+}